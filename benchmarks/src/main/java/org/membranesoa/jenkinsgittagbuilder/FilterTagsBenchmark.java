@@ -0,0 +1,44 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GitTagTrigger#filterTags(String, Map)}, which runs on the complete tag list of every poll.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterTagsBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int tagCount;
+
+    @Param({"", "v\\d+\\.\\d+\\.\\d+", "release-.*"})
+    public String tagFilter;
+
+    private Map<String, ObjectId> tags;
+
+    @Setup
+    public void setup() {
+        tags = new HashMap<>();
+        for (String tag : LocalRemote.tagNames(tagCount))
+            tags.put(tag, ObjectId.zeroId());
+    }
+
+    @Benchmark
+    public Map<String, ObjectId> filterTags() {
+        return GitTagTrigger.filterTags(tagFilter, tags);
+    }
+}
@@ -0,0 +1,110 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.Util;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bare repository on the local file system, standing in for the remote a job polls.
+ *
+ * All tags point to a single commit; every fourth tag is annotated. The refs are written as packed-refs, which is how
+ * a hosted repository with many tags usually stores them.
+ */
+class LocalRemote {
+
+    final File dir;
+
+    final List<String> tags;
+
+    private LocalRemote(File dir, List<String> tags) {
+        this.dir = dir;
+        this.tags = tags;
+    }
+
+    static LocalRemote create(int tagCount) throws IOException {
+        File dir = Files.createTempDirectory("git-tag-bench").toFile();
+        Repository repo = FileRepositoryBuilder.create(dir);
+        repo.create(true);
+
+        List<String> tags = tagNames(tagCount);
+        PersonIdent ident = new PersonIdent("bench", "bench@example.com");
+        try (ObjectInserter inserter = repo.newObjectInserter();
+             Writer packedRefs = new OutputStreamWriter(new FileOutputStream(new File(dir, "packed-refs")), "UTF-8")) {
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(new TreeFormatter()));
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage("initial");
+            ObjectId commitId = inserter.insert(commit);
+
+            packedRefs.write("# pack-refs with: peeled fully-peeled \n");
+            for (int i = 0; i < tags.size(); i++) {
+                String ref = Constants.R_TAGS + tags.get(i);
+                if (i % 4 == 0) {
+                    TagBuilder tag = new TagBuilder();
+                    tag.setObjectId(commitId, Constants.OBJ_COMMIT);
+                    tag.setTag(tags.get(i));
+                    tag.setTagger(ident);
+                    tag.setMessage("Release " + tags.get(i));
+                    packedRefs.write(inserter.insert(tag).name() + " " + ref + "\n");
+                    packedRefs.write("^" + commitId.name() + "\n");
+                } else {
+                    packedRefs.write(commitId.name() + " " + ref + "\n");
+                }
+            }
+            inserter.flush();
+        } finally {
+            repo.close();
+        }
+        return new LocalRemote(dir, tags);
+    }
+
+    String getUrl() {
+        return dir.toURI().toString();
+    }
+
+    /**
+     * Tag names in the shapes commonly found in release repositories.
+     */
+    static List<String> tagNames(int count) {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int major = i / 1000, minor = (i / 50) % 20, patch = i % 50;
+            switch (i % 4) {
+                case 0:
+                    result.add("v" + major + "." + minor + "." + patch);
+                    break;
+                case 1:
+                    result.add(major + "." + minor + "." + patch + "-rc" + (i % 5));
+                    break;
+                case 2:
+                    result.add("release-" + (2010 + major) + "." + (minor % 12 + 1) + "." + patch);
+                    break;
+                default:
+                    result.add("nightly-" + (20160000 + i));
+            }
+        }
+        return result;
+    }
+
+    void delete() throws IOException {
+        Util.deleteRecursive(dir);
+    }
+}
@@ -0,0 +1,68 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.SubmoduleConfig;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.GitSCMExtension;
+
+import org.eclipse.jgit.transport.URIish;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how a post-commit notification is matched against the jobs of a controller.
+ *
+ * The synthetic item tree holds one {@link GitSCM} per job, each with one to three remotes spread over a few hosts;
+ * one job in a hundred watches the notified repository. The Jenkins item lookup itself is exercised by the load test
+ * harness, which runs against a real instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NotifyCommitDispatchBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int jobCount;
+
+    private List<GitSCM> items;
+
+    private URIish notified;
+
+    @Setup
+    public void setup() throws Exception {
+        items = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; i++) {
+            List<UserRemoteConfig> remotes = new ArrayList<>();
+            for (int r = 0; r <= i % 3; r++)
+                remotes.add(new UserRemoteConfig(repositoryUrl(i % 100 == 0 ? 0 : i, r), r == 0 ? "origin" : "mirror" + r, null, null));
+            items.add(new GitSCM(remotes, Collections.singletonList(new BranchSpec("refs/tags/${tagName}")), false,
+                    Collections.<SubmoduleConfig>emptyList(), null, null, Collections.<GitSCMExtension>emptyList()));
+        }
+        notified = new URIish(repositoryUrl(0, 0));
+    }
+
+    private static String repositoryUrl(int job, int remote) {
+        return "https://git" + (job % 7) + ".example.com/group" + (job % 31) + "/repo" + job + (remote == 0 ? "" : "-" + remote) + ".git";
+    }
+
+    @Benchmark
+    public int dispatch() {
+        int triggered = 0;
+        for (GitSCM scm : items)
+            if (GitTagTrigger.isNotifiedBy(scm, notified))
+                triggered++;
+        return triggered;
+    }
+}
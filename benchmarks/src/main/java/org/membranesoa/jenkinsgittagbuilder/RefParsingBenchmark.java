@@ -0,0 +1,67 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing the tags of a remote as done by {@link GitTagHelper#pollTags}, against a bare repository on the
+ * local file system.
+ *
+ * {@link #listRemote()} covers the complete ls-remote round trip, {@link #parseReferences()} only the conversion of
+ * the listed references into tags.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RefParsingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int tagCount;
+
+    @Param({"jgit", "git"})
+    public String implementation;
+
+    private LocalRemote remote;
+
+    private GitClient git;
+
+    private Map<String, ObjectId> references;
+
+    @Setup
+    public void setup() throws Exception {
+        remote = LocalRemote.create(tagCount);
+        git = Git.with(TaskListener.NULL, new EnvVars()).in(remote.dir).using(implementation).getClient();
+        references = git.getRemoteReferences(remote.getUrl(), null, false, true);
+    }
+
+    @Benchmark
+    public Map<String, ObjectId> listRemote() throws Exception {
+        return GitTagHelper.getTags(git.getRemoteReferences(remote.getUrl(), null, false, true));
+    }
+
+    @Benchmark
+    public Map<String, ObjectId> parseReferences() {
+        return GitTagHelper.getTags(references);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        remote.delete();
+    }
+}
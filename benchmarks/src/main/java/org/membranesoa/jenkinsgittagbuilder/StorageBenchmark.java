@@ -0,0 +1,92 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.Util;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Storage#storeNewTags(String, Map, long)} for a job that already knows many tags and sees one new tag per poll,
+ * both with the known tags already in memory ({@link #storeNewTags()}) and right after a restart ({@link #loadAndStoreNewTags()}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageBenchmark {
+
+    private static final String REMOTE = "https://git.example.com/bench.git";
+
+    @Param({"1000", "10000", "100000"})
+    public int knownTags;
+
+    private File dir;
+
+    private File file;
+
+    private Storage storage;
+
+    private Map<String, ObjectId> polled;
+
+    private String newTag;
+
+    private int round;
+
+    @Setup(Level.Trial)
+    public void createState() throws Exception {
+        dir = Files.createTempDirectory("git-tag-bench").toFile();
+        file = new File(dir, "tags.log");
+        polled = new HashMap<>();
+        for (String tag : LocalRemote.tagNames(knownTags))
+            polled.put(tag, ObjectId.zeroId());
+        storage = storage(new TagStore(file));
+        // the first call only records the known tags
+        storage.storeNewTags(REMOTE, polled, 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextPoll() {
+        polled.remove(newTag);
+        newTag = "bench-" + round++;
+        polled.put(newTag, ObjectId.zeroId());
+    }
+
+    @Benchmark
+    public Map<String, ObjectId> storeNewTags() throws Exception {
+        return storage.storeNewTags(REMOTE, polled, 0);
+    }
+
+    @Benchmark
+    public Map<String, ObjectId> loadAndStoreNewTags() throws Exception {
+        TagStore store = new TagStore(file);
+        try {
+            return storage(store).storeNewTags(REMOTE, polled, 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    private Storage storage(TagStore store) {
+        return new Storage(store, "bench", new File(dir, "known-tags.bin"));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteState() throws IOException {
+        Util.deleteRecursive(dir);
+    }
+}
@@ -0,0 +1,215 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.Util;
+import hudson.util.TimeUnit2;
+
+import org.eclipse.jgit.transport.URIish;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Keeps jobs from polling a git host that keeps failing.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and polls of all jobs on that host are skipped.
+ * Once the open period is over, a single poll is let through as a probe: if it succeeds the breaker closes, otherwise
+ * it opens again for twice as long (up to {@link #MAX_OPEN_PERIOD}).
+ *
+ * Only failures to reach the host count, see {@link #isHostFailure}: a job with wrong credentials or a repository that
+ * does not exist must not pause the polling of every other job on the same host.
+ */
+public final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String host;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openPeriod = OPEN_PERIOD;
+
+    private long openedAt;
+
+    CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    /**
+     * The breaker for the host of the given remote. Remotes without a host (local paths) get a breaker of their own.
+     */
+    public static CircuitBreaker forRemote(URIish remote) {
+        String host = hostOf(remote);
+        CircuitBreaker breaker = BREAKERS.get(host);
+        if (breaker == null) {
+            CircuitBreaker existing = BREAKERS.putIfAbsent(host, breaker = new CircuitBreaker(host));
+            if (existing != null)
+                breaker = existing;
+        }
+        return breaker;
+    }
+
+    /**
+     * The host and port of a remote, or the whole remote for local paths.
+     */
+    public static String hostOf(URIish remote) {
+        return remote.getHost() == null ? remote.toString() : remote.getHost().toLowerCase() + (remote.getPort() > 0 ? ":" + remote.getPort() : "");
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Whether the caller may contact the host. Callers that get {@code true} must report the outcome through
+     * {@link #record(boolean)}, or {@link #release()} if they did not contact it.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.currentTimeMillis());
+    }
+
+    synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case OPEN:
+                if (getRetryIn(now) > 0)
+                    return false;
+                state = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+                // a probe is already on its way
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Milliseconds until the next probe is let through; 0 if the breaker is closed.
+     */
+    public long getRetryIn() {
+        return getRetryIn(System.currentTimeMillis());
+    }
+
+    synchronized long getRetryIn(long now) {
+        return state == State.CLOSED ? 0 : Math.max(0, openedAt + openPeriod - now);
+    }
+
+    /**
+     * Gives back what {@link #tryAcquire()} granted, for a caller that did not contact the host after all. A probe
+     * that was let through is let through again.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN)
+            state = State.OPEN;
+    }
+
+    public void record(boolean success) {
+        record(success, System.currentTimeMillis());
+    }
+
+    synchronized void record(boolean success, long now) {
+        if (success) {
+            if (state != State.CLOSED)
+                LOGGER.info("Git host " + host + " is reachable again, resuming tag polling");
+            state = State.CLOSED;
+            failures = 0;
+            openPeriod = OPEN_PERIOD;
+            return;
+        }
+
+        failures++;
+        if (state == State.HALF_OPEN) {
+            openPeriod = Math.min(openPeriod * 2, MAX_OPEN_PERIOD);
+            open(now);
+        } else if (state == State.CLOSED && failures >= FAILURE_THRESHOLD) {
+            LOGGER.warning("Git host " + host + " failed " + failures + " times in a row, pausing tag polling for " + Util.getTimeSpanString(openPeriod));
+            open(now);
+        }
+    }
+
+    /**
+     * Whether a failure to list a remote means its host could not be reached, as opposed to an error of the repository
+     * or of the job, such as failed authentication, a missing repository or a bad refspec. Timeouts count as failures
+     * of the host.
+     */
+    public static boolean isHostFailure(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof InterruptedIOException || t instanceof ConnectException
+                    || t instanceof NoRouteToHostException || t instanceof UnknownHostException)
+                return true;
+            String message = t.getMessage() == null ? "" : t.getMessage().toLowerCase(Locale.ENGLISH);
+            // what git said, rather than the command line with the URL in it
+            int stderr = message.indexOf("stderr:");
+            if (stderr >= 0)
+                message = message.substring(stderr);
+            for (String repositoryError : REPOSITORY_ERRORS)
+                if (message.contains(repositoryError))
+                    return false;
+            for (String hostError : HOST_ERRORS)
+                if (message.contains(hostError))
+                    return true;
+        }
+        return false;
+    }
+
+    /**
+     * Messages of git and the git client that blame the repository or the job, checked first.
+     */
+    private static final String[] REPOSITORY_ERRORS = {
+            "authentication failed", "permission denied", "could not read username", "could not read password",
+            "invalid username or password", "repository not found", "not found", "does not appear to be a git repository",
+            "returned error: 401", "returned error: 403", "returned error: 404", "invalid refspec", "couldn't find remote ref"
+    };
+
+    /**
+     * Messages of git and the git client that blame the connection to the host.
+     */
+    private static final String[] HOST_ERRORS = {
+            "could not resolve host", "couldn't resolve host", "could not resolve hostname", "name or service not known",
+            "temporary failure in name resolution", "timed out", "connection refused", "connection reset",
+            "failed to connect", "unable to connect", "network is unreachable", "no route to host",
+            "remote end hung up unexpectedly", "early eof", "rpc failed", "ssl connect error", "ssl_connect",
+            "gnutls_handshake", "proxy connect", "received http code 5", "broken pipe", "returned error: 5",
+            "kex_exchange_identification", "connection closed"
+    };
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return host + " (" + state + ", " + failures + " failures)";
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    /**
+     * Number of failures in a row that opens the breaker.
+     */
+    public static int FAILURE_THRESHOLD = Integer.getInteger(GitTagTrigger.class.getName() + ".circuitBreakerThreshold", 5);
+
+    /**
+     * How long polls are skipped after the breaker opened.
+     */
+    public static long OPEN_PERIOD = Long.getLong(GitTagTrigger.class.getName() + ".circuitBreakerOpenPeriod", TimeUnit2.MINUTES.toMillis(5));
+
+    /**
+     * Upper bound for the open period, which doubles with every failed probe.
+     */
+    public static long MAX_OPEN_PERIOD = Long.getLong(GitTagTrigger.class.getName() + ".circuitBreakerMaxOpenPeriod", TimeUnit2.HOURS.toMillis(1));
+}
@@ -0,0 +1,123 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import jenkins.util.Timer;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A time budget for the current thread. Once it is used up, the thread gets interrupted, which makes the git client
+ * give up (the command line implementation kills the git process).
+ *
+ * Deadlines nest: a deadline started while another one is active on the same thread never outlives the outer one.
+ * Use with try-with-resources; {@link #close()} clears the interrupt caused by this deadline, so pooled threads are
+ * handed back in a clean state.
+ */
+public final class Deadline implements AutoCloseable {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final Deadline parent;
+
+    private final Thread thread;
+
+    private final long expiresAt;
+
+    private final ScheduledFuture<?> interrupter;
+
+    private boolean expired;
+
+    private boolean closed;
+
+    private Deadline(Deadline parent, long timeoutMillis, long now) {
+        this.parent = parent;
+        this.thread = Thread.currentThread();
+
+        long expiresAt = timeoutMillis > 0 ? now + timeoutMillis : Long.MAX_VALUE;
+        if (parent != null)
+            expiresAt = Math.min(expiresAt, parent.expiresAt);
+        this.expiresAt = expiresAt;
+
+        if (timeoutMillis > 0 && (parent == null || expiresAt < parent.expiresAt)) {
+            interrupter = Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire();
+                }
+            }, expiresAt - now, TimeUnit.MILLISECONDS);
+        } else {
+            // the outer deadline, if any, takes care of interrupting the thread
+            interrupter = null;
+        }
+    }
+
+    /**
+     * Starts a deadline on the current thread.
+     *
+     * @param timeoutMillis the time budget; zero or less means unlimited (but still bounded by an outer deadline)
+     */
+    public static Deadline start(long timeoutMillis) {
+        return start(timeoutMillis, System.currentTimeMillis());
+    }
+
+    static Deadline start(long timeoutMillis, long now) {
+        Deadline deadline = new Deadline(CURRENT.get(), timeoutMillis, now);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Whether the innermost deadline of the current thread, or one of its outer deadlines, has expired.
+     */
+    public static boolean isCurrentExpired() {
+        Deadline deadline = CURRENT.get();
+        return deadline != null && deadline.isExpired();
+    }
+
+    /**
+     * Milliseconds left until this deadline expires, {@link Long#MAX_VALUE} if unlimited.
+     */
+    public long getRemaining() {
+        return getRemaining(System.currentTimeMillis());
+    }
+
+    long getRemaining(long now) {
+        return expiresAt == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, expiresAt - now);
+    }
+
+    /**
+     * Whether this deadline, or one of its outer deadlines, has expired.
+     */
+    public boolean isExpired() {
+        return isExpired(System.currentTimeMillis());
+    }
+
+    boolean isExpired(long now) {
+        return now >= expiresAt || (parent != null && parent.isExpired(now));
+    }
+
+    /**
+     * Interrupts the thread, unless the deadline was closed already. Called by the timer when the deadline expires.
+     */
+    synchronized void expire() {
+        if (closed)
+            return;
+        expired = true;
+        thread.interrupt();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (interrupter != null)
+            interrupter.cancel(false);
+        if (expired)
+            Thread.interrupted();
+        if (parent != null)
+            CURRENT.set(parent);
+        else
+            CURRENT.remove();
+    }
+}
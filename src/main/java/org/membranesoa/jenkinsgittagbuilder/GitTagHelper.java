@@ -24,31 +24,42 @@
  */
 package org.membranesoa.jenkinsgittagbuilder;
 
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.*;
 import hudson.model.Queue;
 import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitException;
 import hudson.plugins.git.GitSCM;
 import hudson.plugins.git.Revision;
+import hudson.plugins.git.UserRemoteConfig;
 import hudson.plugins.git.extensions.GitSCMExtension;
 import hudson.plugins.git.util.Build;
 import hudson.plugins.git.util.BuildData;
 import hudson.plugins.git.util.GitUtils;
 import hudson.scm.PollingResult;
+import hudson.security.ACL;
 import hudson.slaves.NodeProperty;
 import jenkins.model.Jenkins;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
 import org.jenkinsci.plugins.gitclient.GitClient;
 
-import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -129,67 +140,294 @@ public class GitTagHelper {
     }
 
 
-    public static Set<String> pollTags(AbstractProject<?, ?> project, GitSCM scm, final TaskListener listener) throws IOException, InterruptedException {
+    public static Map<String, ObjectId> pollTags(final AbstractProject<?, ?> project, final GitSCM scm, final TaskListener listener) throws IOException, InterruptedException {
         // Poll for changes. Are there any unbuilt revisions that Hudson ought to build ?
 
         listener.getLogger().println("Using strategy: " + scm.getBuildChooser().getDisplayName());
 
-        if (project.isConcurrentBuild()) {
-            listener.error("This plugin does not currently work with concurrent builds enabled.");
-            return new HashSet<>();
+        if (GitTagTrigger.DescriptorImpl.get().getPollingLabel() != null)
+            return bootstrapTags(project, scm, listener);
+
+        final AbstractBuild<?, ?> lastRun = project.getLastBuild();
+        final FilePath workspace = lastRun == null ? null : lastRun.getWorkspace();
+        if (workspace == null || !new FilePath(workspace, ".git").exists()) {
+            listener.getLogger().println("No workspace found, listing the tags from the controller.");
+            return bootstrapTags(project, scm, listener);
+        }
+
+        // expanding parameters takes the environment of the build, so only do that if the URL has any
+        URIish urIish = getConfiguredRemote(scm);
+        if (urIish == null) {
+            for (RemoteConfig remoteConfig : scm.getParamExpandedRepos(lastRun, listener)) {
+                if (!remoteConfig.getURIs().isEmpty()) {
+                    urIish = remoteConfig.getURIs().get(0);
+                    break;
+                }
+            }
+        }
+        if (urIish == null) {
+            listener.error("No URIish in RemoteConfig found.");
+            return new HashMap<>();
         }
 
-        FreeStyleBuild lastRun = (FreeStyleBuild) project.getLastBuild();
+        return listTags(urIish, listener, new RemoteCallFactory<Map<String, ObjectId>>() {
+            @Override
+            public RemoteLister create() throws IOException, InterruptedException {
+                final EnvVars pollEnv = getPollEnvironment((AbstractProject) project, lastRun, listener);
+                return lister(scm.createClient(listener, pollEnv, lastRun, workspace));
+            }
+        });
+    }
 
-        if (lastRun != null && lastRun.getWorkspace() != null && new FilePath(lastRun.getWorkspace(), ".git").exists()) {
-            // OK
-        } else {
+    /**
+     * Lists the tags of the first remote without a workspace: on the polling agent responsible for the remote if there
+     * is one, otherwise on the controller. Parameters in the URL are expanded with their default values.
+     */
+    static Map<String, ObjectId> bootstrapTags(final AbstractProject<?, ?> project, final GitSCM scm, final TaskListener listener) throws IOException, InterruptedException {
+        for (final UserRemoteConfig remote : scm.getUserRemoteConfigs()) {
+            final String configured = Util.fixNull(remote.getUrl());
+            final EnvVars expanded = configured.contains("$") ? getDefaultEnvironment(project, listener) : null;
+            final String url = expanded == null ? configured : expanded.expand(configured);
+            final URIish urIish;
+            try {
+                urIish = new URIish(url);
+            } catch (URISyntaxException e) {
+                listener.error("Invalid repository URL " + url);
+                return new HashMap<>();
+            }
 
-            // do a git clone
-            lastRun = new FreeStyleBuild((FreeStyleProject) project) {
+            return listTags(urIish, listener, new RemoteCallFactory<Map<String, ObjectId>>() {
                 @Override
-                public void run() {
-                    if (!getLogFile().getParentFile().exists())
-                        if (!getLogFile().getParentFile().mkdirs())
-                            throw new RuntimeException("Could not create directory " + getLogFile().getParent());
-
-
-                    execute(new BuildExecution() {
-                        @Override
-                        protected Result doRun(@Nonnull BuildListener listener) throws Exception {
-                            return Result.SUCCESS;
-                        }
-                    });
+                public RemoteLister create() throws IOException, InterruptedException {
+                    Jenkins jenkins = Jenkins.getActiveInstance();
+                    EnvVars env = expanded != null ? expanded : getDefaultEnvironment(project, listener);
+                    StandardUsernameCredentials credentials = lookupCredentials(project, remote.getCredentialsId(), url);
+                    Node agent = PollingAgents.select(urIish.toString());
+                    if (agent != null) {
+                        listener.getLogger().println("Listing the tags on " + agent.getDisplayName());
+                        return PollingAgents.lister(agent, scm.getGitExe(agent, listener), env, credentials, listener);
+                    }
+
+                    GitClient git = Git.with(listener, env).in(jenkins.getRootDir()).using(scm.getGitExe(jenkins, listener)).getClient();
+                    if (credentials != null)
+                        git.addDefaultCredentials(credentials);
+                    return lister(git);
                 }
-            };
-            listener.getLogger().println("No workspace found, enqueuing build to create a workspace.");
-            project.scheduleBuild(null);
-            return new HashSet<>();
+            });
         }
 
-        final EnvVars pollEnv = getPollEnvironment((AbstractProject) project, lastRun, listener);
+        listener.error("No URIish in RemoteConfig found.");
+        return new HashMap<>();
+    }
 
-        GitClient git = scm.createClient(listener, pollEnv, lastRun, lastRun.getWorkspace());
+    /**
+     * The first configured remote, unless its URL has parameters to expand.
+     */
+    private static URIish getConfiguredRemote(GitSCM scm) {
+        List<UserRemoteConfig> remotes = scm.getUserRemoteConfigs();
+        String url = remotes.isEmpty() ? null : remotes.get(0).getUrl();
+        if (url == null || url.contains("$"))
+            return null;
+        try {
+            return new URIish(url);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
 
+    /**
+     * The environment of a job on the controller, with the default values of its parameters.
+     */
+    static EnvVars getDefaultEnvironment(AbstractProject<?, ?> project, TaskListener listener) throws IOException, InterruptedException {
+        EnvVars env = project.getEnvironment(Jenkins.getActiveInstance(), listener);
+        ParametersDefinitionProperty paramDefProp = project.getProperty(ParametersDefinitionProperty.class);
+        if (paramDefProp != null) {
+            for (ParameterDefinition paramDefinition : paramDefProp.getParameterDefinitions()) {
+                ParameterValue defaultValue = paramDefinition.getDefaultParameterValue();
+                if (defaultValue != null && defaultValue.getValue() instanceof String)
+                    env.put(defaultValue.getName(), (String) defaultValue.getValue());
+            }
+        }
+        return env;
+    }
 
-        for (RemoteConfig remoteConfig : scm.getParamExpandedRepos(lastRun, listener)) {
-            for (URIish urIish : remoteConfig.getURIs()) {
-                String gitRepo = urIish.toString();
+    static StandardUsernameCredentials lookupCredentials(Item project, String credentialsId, String url) {
+        if (credentialsId == null)
+            return null;
+        return CredentialsMatchers.firstOrNull(
+                CredentialsProvider.lookupCredentials(StandardUsernameCredentials.class, project, ACL.SYSTEM,
+                        URIRequirementBuilder.fromUri(url).build()),
+                CredentialsMatchers.allOf(CredentialsMatchers.withId(credentialsId), GitClient.CREDENTIALS_MATCHER));
+    }
 
+    /**
+     * Something done to a remote, such as listing its references, in whatever place the polling happens.
+     */
+    interface RemoteCall<T> {
+        T call(String remote) throws GitException, InterruptedException;
+    }
 
-                HashSet<String> result = new HashSet<>();
-                for (String tag : git.getRemoteReferences(gitRepo, null, false, true).keySet())
-                    if (!tag.contains("^{}")) {
-                        if (tag.startsWith("refs/tags/"))
-                            tag = tag.substring(10);
-                        result.add(tag);
-                    }
-                return result;
+    /**
+     * Lists the references of a remote.
+     */
+    interface RemoteLister extends RemoteCall<Map<String, ObjectId>> {
+    }
+
+    static RemoteLister lister(final GitClient git) {
+        return new RemoteLister() {
+            @Override
+            public Map<String, ObjectId> call(String remote) throws GitException, InterruptedException {
+                return git.getRemoteReferences(remote, null, false, true);
             }
+        };
+    }
+
+    /**
+     * Sets up a call to a remote, once its host's circuit breaker lets it through.
+     */
+    interface RemoteCallFactory<T> {
+        RemoteCall<T> create() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Lists the tags of a remote, unless its host is known to be failing, in which case nothing is set up for it.
+     */
+    private static Map<String, ObjectId> listTags(URIish urIish, TaskListener listener, RemoteCallFactory<Map<String, ObjectId>> factory) throws IOException, InterruptedException {
+        Map<String, ObjectId> references = callGuarded(urIish, "list the tags of", listener, factory);
+        return references == null ? new HashMap<String, ObjectId>() : getTags(references);
+    }
+
+    /**
+     * Calls a remote through the circuit breaker of its host, with retries, see {@link #callRemote}. Nothing is set up
+     * while the breaker is open. Failures to reach the host count against the breaker, other failures are logged.
+     *
+     * @param action what the call does, such as "list the tags of"
+     * @return the result, null if the call was skipped or failed
+     */
+    static <T> T callGuarded(URIish urIish, String action, TaskListener listener, RemoteCallFactory<T> factory) throws IOException, InterruptedException {
+        String gitRepo = urIish.toString();
+        CircuitBreaker breaker = CircuitBreaker.forRemote(urIish);
+        if (!breaker.tryAcquire()) {
+            listener.getLogger().println("Skipping " + gitRepo + ": " + breaker.getHost() + " failed repeatedly, next attempt in " + Util.getTimeSpanString(breaker.getRetryIn()) + ".");
+            return null;
         }
 
-        listener.error("No URIish in RemoteConfig found.");
-        return new HashSet<>();
+        // null as long as the host has not been contacted
+        Boolean reachable = null;
+        try {
+            RemoteCall<T> call = factory.create();
+            reachable = false;
+            T result = callRemote(call, gitRepo, action, listener);
+            reachable = true;
+            return result;
+        } catch (GitException e) {
+            // errors of the repository or the job say nothing about the host
+            reachable = !CircuitBreaker.isHostFailure(e);
+            e.printStackTrace(listener.error("Failed to " + action + " " + gitRepo));
+            return null;
+        } finally {
+            if (reachable == null)
+                breaker.release();
+            else
+                breaker.record(reachable);
+        }
+    }
+
+    /**
+     * The remote {@link #pollTags} lists the tags of, as configured (without parameter expansion).
+     */
+    public static String getPolledRemote(GitSCM scm) {
+        for (RemoteConfig remoteConfig : scm.getRepositories())
+            for (URIish urIish : remoteConfig.getURIs())
+                return urIish.toString();
+        return "";
+    }
+
+    /**
+     * Calls a remote, bounding each attempt by the configured remote timeout. Failed or timed out attempts are retried
+     * with exponential backoff, as long as the polling deadline leaves time for it.
+     *
+     * @param action what the call does, such as "list the tags of"
+     */
+    static <T> T callRemote(RemoteCall<T> git, String remote, String action, TaskListener listener) throws InterruptedException {
+        GitTagTrigger.DescriptorImpl descriptor = GitTagTrigger.DescriptorImpl.get();
+        long remoteTimeout = TimeUnit.SECONDS.toMillis(descriptor.getRemoteTimeout());
+
+        for (int attempt = 0; ; attempt++) {
+            GitException failure;
+            boolean timedOut;
+            Deadline deadline = Deadline.start(remoteTimeout);
+            try {
+                return git.call(remote);
+            } catch (InterruptedException e) {
+                if (!deadline.isExpired())
+                    throw e;
+                failure = new GitException(e);
+            } catch (GitException e) {
+                failure = e;
+            } finally {
+                timedOut = deadline.isExpired();
+                deadline.close();
+            }
+
+            if (Deadline.isCurrentExpired())
+                throw new InterruptedException("Polling timed out trying to " + action + " " + remote);
+            if (timedOut)
+                failure = new GitException("Trying to " + action + " " + remote + " timed out after " + Util.getTimeSpanString(remoteTimeout), failure);
+            if (attempt >= descriptor.getPollingRetries())
+                throw failure;
+
+            long backoff = getRetryBackoff(attempt);
+            listener.getLogger().println(failure.getMessage() + ". Retrying in " + Util.getTimeSpanString(backoff) + ".");
+            Thread.sleep(backoff);
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: somewhere between half and all of {@code RETRY_BACKOFF * 2^attempt}, capped at
+     * {@code MAX_RETRY_BACKOFF}.
+     */
+    static long getRetryBackoff(int attempt) {
+        long backoff = Math.min(GitTagTrigger.RETRY_BACKOFF << Math.min(attempt, 20), GitTagTrigger.MAX_RETRY_BACKOFF);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * Converts the references listed by a remote into tag names and the commits they point to. Annotated tags are
+     * resolved through their peeled ("^{}") entries.
+     */
+    public static RemoteTags getTags(Map<String, ObjectId> references) {
+        RemoteTags result = new RemoteTags();
+        for (Map.Entry<String, ObjectId> ref : references.entrySet()) {
+            String tag = ref.getKey();
+            boolean peeled = tag.endsWith("^{}");
+            if (peeled)
+                tag = tag.substring(0, tag.length() - 3);
+            else if (references.containsKey(tag + "^{}"))
+                result.tagObjects.put(tag.startsWith("refs/tags/") ? tag.substring(10) : tag, ref.getValue());
+            if (tag.startsWith("refs/tags/"))
+                tag = tag.substring(10);
+            if (peeled || !result.containsKey(tag))
+                result.put(tag, ref.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Tag names and the commits they point to, as returned by {@link #getTags}. Annotated tags also have their tag
+     * object.
+     */
+    public static class RemoteTags extends HashMap<String, ObjectId> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, ObjectId> tagObjects = new HashMap<>();
+
+        /**
+         * The annotated tags, with their tag objects.
+         */
+        public Map<String, ObjectId> getTagObjects() {
+            return tagObjects;
+        }
     }
 
 
@@ -0,0 +1,43 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Item;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives changes to the tags of the remotes polled by {@link GitTagTrigger}.
+ */
+public abstract class GitTagListener implements ExtensionPoint {
+
+    /**
+     * Called once when tags are found deleted from the polled remote of a job. If a tag comes back and is deleted
+     * again, this is called again.
+     *
+     * @param remote the polled remote, as configured
+     * @param tags the deleted tags, with the commits they pointed to
+     */
+    public void onDeleted(Item job, String remote, Map<String, ObjectId> tags) {
+    }
+
+    public static ExtensionList<GitTagListener> all() {
+        return ExtensionList.lookup(GitTagListener.class);
+    }
+
+    static void fireDeleted(Item job, String remote, Map<String, ObjectId> tags) {
+        for (GitTagListener listener : all()) {
+            try {
+                listener.onDeleted(job, remote, tags);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, listener + " failed to handle the deleted tags of " + job.getFullName(), e);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(GitTagListener.class.getName());
+}
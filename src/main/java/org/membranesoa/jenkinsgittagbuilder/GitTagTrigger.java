@@ -38,49 +38,61 @@ import hudson.init.Initializer;
 import hudson.model.*;
 import hudson.plugins.git.GitSCM;
 import hudson.plugins.git.GitStatus;
+import hudson.plugins.git.UserRemoteConfig;
 import hudson.scm.SCM;
 import hudson.scm.SCMDescriptor;
+import hudson.scheduler.CronTab;
+import hudson.scheduler.CronTabList;
+import hudson.scheduler.Hash;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
+import hudson.util.ByteBuffer;
 import hudson.util.FlushProofOutputStream;
 import hudson.util.FormValidation;
 import hudson.util.IOUtils;
 import hudson.util.NamingThreadFactory;
-import hudson.util.SequentialExecutionQueue;
-import hudson.util.StreamTaskListener;
 import hudson.util.TimeUnit2;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.jelly.XMLOutput;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
 import java.nio.charset.Charset;
-import java.text.DateFormat;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import jenkins.model.Jenkins;
 import jenkins.triggers.SCMTriggerItem;
+import jenkins.util.Timer;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -91,6 +103,7 @@ import static hudson.init.InitMilestone.JOB_LOADED;
 import static java.util.logging.Level.*;
 
 import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
 
 import jenkins.model.RunAction2;
 
@@ -110,6 +123,48 @@ public class GitTagTrigger extends Trigger<Item> {
 
     private String tagFilter;
 
+    /**
+     * Whether a new tag replaces the queued builds of older tags.
+     */
+    private boolean supersede;
+
+    /**
+     * Whether the message, tagger and date of new annotated tags are fetched when polling.
+     */
+    private boolean fetchTagMetadata;
+
+    /**
+     * Whether tags deleted from the remote are forgotten right away, rather than kept as deleted.
+     */
+    private boolean forgetDeletedTags;
+
+    /**
+     * Periodic pollings before this time are skipped, see {@link #start(Item, boolean)}.
+     */
+    private transient volatile long firstPollNotBefore;
+
+    /**
+     * The schedule of the periodic pollings of this trigger, null if the {@link PollScheduler} does not poll it.
+     */
+    transient volatile PollScheduler.Entry scheduled;
+
+    /**
+     * When a polling last found new tags, -1 until looked up in the {@link TagStore}.
+     */
+    private transient volatile long lastTagged = -1;
+
+    /**
+     * The log of the running polling, null if none is running.
+     */
+    private transient volatile PollLog currentPoll;
+
+    /**
+     * The last completed polling; looked up in the {@link PollJournal} unless {@link #lastPollLoaded}.
+     */
+    private transient volatile PollRecord lastPoll;
+
+    private transient volatile boolean lastPollLoaded;
+
     @Initializer(after = JOB_LOADED)
     public static void setup() throws IOException {
         Jenkins instance = Jenkins.getInstance();
@@ -126,6 +181,18 @@ public class GitTagTrigger extends Trigger<Item> {
 
         if (!found)
             extensionList.add(0, new MyListener());
+
+        // read the tag state while the rest of Jenkins starts up, rather than in the first polling that needs it
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TagStore.get().load();
+                } catch (IOException e) {
+                    LOGGER.log(WARNING, "Failed to preload the tag state", e);
+                }
+            }
+        });
     }
 
     public GitTagTrigger(String scmpoll_spec) throws ANTLRException {
@@ -152,14 +219,153 @@ public class GitTagTrigger extends Trigger<Item> {
         return tagFilter;
     }
 
+    public boolean isSupersede() {
+        return supersede;
+    }
+
+    /**
+     * When set, only the highest version gets built: a new tag removes the queued builds of lower versions that have not
+     * started yet, and is not built itself while a higher version is queued. Of several tags found by one polling only
+     * the highest version is built.
+     */
+    @DataBoundSetter
+    public void setSupersede(boolean supersede) {
+        this.supersede = supersede;
+    }
+
+    public boolean isFetchTagMetadata() {
+        return fetchTagMetadata;
+    }
+
+    /**
+     * When set, the polling that finds new annotated tags fetches their tag objects in one go and passes the message,
+     * tagger and date to the builds, see {@link TagMetadata}.
+     */
+    @DataBoundSetter
+    public void setFetchTagMetadata(boolean fetchTagMetadata) {
+        this.fetchTagMetadata = fetchTagMetadata;
+    }
+
+    public boolean isForgetDeletedTags() {
+        return forgetDeletedTags;
+    }
+
+    /**
+     * When set, tags deleted from the remote are forgotten by the next polling, so they trigger a build if they are
+     * created again. Otherwise they are kept as deleted, within the limits of the global configuration.
+     */
+    @DataBoundSetter
+    public void setForgetDeletedTags(boolean forgetDeletedTags) {
+        this.forgetDeletedTags = forgetDeletedTags;
+    }
+
+
+    /**
+     * When a polling last found new tags for this job, 0 if never.
+     */
+    long getLastTagged() {
+        long last = lastTagged;
+        if (last < 0) {
+            try {
+                last = job == null ? 0 : TagStore.get().getLastSeen(job.getFullName());
+            } catch (IOException e) {
+                LOGGER.log(WARNING, "Failed to read the tag state of " + job.getFullName(), e);
+                last = 0;
+            }
+            lastTagged = last;
+        }
+        return last;
+    }
+
+    /**
+     * Hands the periodic pollings to the {@link PollScheduler}, unless {@link #CENTRAL_SCHEDULER} is off.
+     *
+     * When a job is loaded from disk, typically all jobs at once during startup, its first periodic polling is moved to a random
+     * point within its polling interval. That way a restart does not make all jobs poll in the same minute.
+     */
+    @Override
+    public void start(Item project, boolean newInstance) {
+        super.start(project, newInstance);
+        if (spec == null || spec.trim().isEmpty()) {
+            return;
+        }
+
+        long delay = newInstance || !STARTUP_JITTER ? -1 : (long) (Math.random() * getPollingInterval());
+        if (CENTRAL_SCHEDULER) {
+            // without cron tabs, Jenkins no longer checks this trigger every minute
+            tabs = new CronTabList(Collections.<CronTab>emptyList());
+            getDescriptor().scheduler.register(this, spec, Hash.from(project.getFullName()), delay < 0 ? 0 : System.currentTimeMillis() + delay);
+            return;
+        }
+        if (delay < 0) {
+            return;
+        }
+
+        firstPollNotBefore = System.currentTimeMillis() + delay;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                GitTagTrigger.this.run(null, PollPriority.CRON);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The shortest interval between two periodic pollings, bounded to between one minute and one hour.
+     */
+    long getPollingInterval() {
+        long interval = TimeUnit2.HOURS.toMillis(1);
+        Hash hash = job == null ? null : Hash.from(job.getFullName());
+        long now = System.currentTimeMillis();
+        for (String line : spec.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                CronTab tab = new CronTab(line, hash);
+                long next = tab.ceil(now).getTimeInMillis();
+                long afterNext = tab.ceil(next + TimeUnit2.MINUTES.toMillis(1)).getTimeInMillis();
+                interval = Math.min(interval, afterNext - next);
+            } catch (ANTLRException e) {
+                // the spec has been validated when the job was configured; fall back to the upper bound
+            }
+        }
+        return Math.max(interval, TimeUnit2.MINUTES.toMillis(1));
+    }
+
+    /**
+     * Whether this trigger is still the trigger of its job. Jenkins does not stop the triggers of deleted jobs, nor
+     * those of jobs replaced by reloading the configuration from disk.
+     */
+    boolean isCurrent() {
+        if (job == null)
+            return false;
+        Jenkins jenkins = Jenkins.getInstance();
+        Item item = jenkins == null ? null : jenkins.getItemByFullName(job.getFullName());
+        if (item != job)
+            return false;
+        GitTagTriggerItem p = GitTagTriggerItem.GitTagTriggerItems.asGitTagTriggerItem(item);
+        return p != null && p.getGitTagTrigger() == this;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        getDescriptor().scheduler.unregister(this);
+    }
 
     @Override
     public void run() {
         if (job == null) {
             return;
         }
+        if (System.currentTimeMillis() < firstPollNotBefore) {
+            LOGGER.fine("Skipping the periodic polling of " + job + " until its staggered first polling");
+            return;
+        }
 
-        run(null);
+        run(null, PollPriority.CRON);
     }
 
     /**
@@ -168,6 +374,13 @@ public class GitTagTrigger extends Trigger<Item> {
      * @since 1.375
      */
     public void run(Action[] additionalActions) {
+        run(additionalActions, PollPriority.WEBHOOK);
+    }
+
+    /**
+     * Run the SCM trigger with additional build actions, queueing the polling according to why it was requested.
+     */
+    public void run(Action[] additionalActions, PollPriority priority) {
         if (job == null) {
             return;
         }
@@ -175,17 +388,18 @@ public class GitTagTrigger extends Trigger<Item> {
         DescriptorImpl d = getDescriptor();
 
         LOGGER.fine("Scheduling a polling for " + job);
+        Runner runner = new Runner(additionalActions);
+        runner.periodic = priority == PollPriority.CRON;
         if (d.synchronousPolling) {
             LOGGER.fine("Running the trigger directly without threading, " +
                     "as it's already taken care of by Trigger.Cron");
-            new Runner(additionalActions).run();
+            runner.run();
         } else {
             // schedule the polling.
             // even if we end up submitting this too many times, that's OK.
             // the real exclusion control happens inside Runner.
             LOGGER.fine("scheduling the trigger to (asynchronously) run");
-            d.queue.execute(new Runner(additionalActions));
-            d.clogCheck();
+            d.queueFor(job).execute(runner, priority);
         }
     }
 
@@ -204,12 +418,28 @@ public class GitTagTrigger extends Trigger<Item> {
     }
 
     /**
-     * Returns the file that records the last/current polling activity.
+     * Returns the file that recorded the last polling activity in earlier versions, which is shown until the job is
+     * polled again and then deleted. The polling log is now rendered from the {@link PollRecord} of the last polling.
      */
     public File getLogFile() {
         return new File(job.getRootDir(), "git-tag-polling.log");
     }
 
+    /**
+     * The last completed polling of this job, null if none is recorded.
+     */
+    public PollRecord getLastPoll() {
+        if (!lastPollLoaded && job != null) {
+            try {
+                lastPoll = PollJournal.forJob(job).findLast();
+            } catch (IOException e) {
+                LOGGER.log(WARNING, "Failed to read the polling journal", e);
+            }
+            lastPollLoaded = true;
+        }
+        return lastPoll;
+    }
+
     @Extension
     public static class DescriptorImpl extends TriggerDescriptor {
 
@@ -217,12 +447,51 @@ public class GitTagTrigger extends Trigger<Item> {
             return new NamingThreadFactory(Executors.defaultThreadFactory(), "GitTagTrigger");
         }
 
+        private static final boolean VIRTUAL_THREADS_SUPPORTED = isVirtualThreadsAvailable();
+
+        /**
+         * Most pollings run at once on platform threads and on virtual threads.
+         */
+        private static final int MAX_PLATFORM_THREADS = 100, MAX_VIRTUAL_THREADS = 10000;
+
+        private static boolean isVirtualThreadsAvailable() {
+            try {
+                Thread.class.getMethod("ofVirtual").invoke(null);
+                return true;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return false;
+            }
+        }
+
+        /**
+         * An executor starting a virtual thread per task, or null if the JVM has no virtual threads (before Java 21).
+         */
+        private static ExecutorService newVirtualThreadExecutor() {
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "GitTagTrigger-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
         /**
          * Used to control the execution of the polling tasks. <p> This executor implementation has a semantics suitable for polling. Namely, no two threads
          * will try to poll the same project at once, and multiple polling requests to the same job will be combined into one. Note that because executor isn't
          * aware of a potential workspace lock between a build and a polling, we may end up using executor threads unwisely --- they may block.
+         * <p> Pollings requested by users and post-commit hooks are run ahead of periodic ones, see {@link PollPriority}.
+         * <p> There are {@link GitTagTrigger#POLLING_SHARDS} queues, each job always going to the same one. They share the
+         * executor service and the rate limit buckets, and split {@link #maximumThreads} among them.
+         */
+        private transient final PollingQueue[] queues;
+
+        /**
+         * Queues the periodic pollings of the triggers as they become due.
          */
-        private transient final SequentialExecutionQueue queue = new SequentialExecutionQueue(Executors.newSingleThreadExecutor(threadFactory()));
+        transient final PollScheduler scheduler = new PollScheduler();
 
         /**
          * Whether the projects should be polled all in one go in the order of dependencies. The default behavior is that each project polls for changes
@@ -235,9 +504,70 @@ public class GitTagTrigger extends Trigger<Item> {
          */
         private int maximumThreads;
 
+        /**
+         * Whether pollings run on virtual threads, if the JVM supports them. {@link #maximumThreads} then only caps the
+         * number of concurrent pollings.
+         */
+        private boolean virtualThreads;
+
+        /**
+         * Max number of seconds a single polling may take, including retries. 0 for unbounded.
+         */
+        private int pollingTimeout = 600;
+
+        /**
+         * Max number of seconds a single attempt to list the tags of a remote may take. 0 for unbounded.
+         */
+        private int remoteTimeout = 120;
+
+        /**
+         * How often listing the tags of a remote is retried after a failure or timeout.
+         */
+        private int pollingRetries = 2;
+
+        /**
+         * Disk space in MB the repository mirrors may take on each node. 0 disables the mirror cache.
+         */
+        private int mirrorCacheSize;
+
+        /**
+         * Label expression of the agents that list the tags of remotes, or null to poll on the controller.
+         */
+        private String pollingLabel;
+
+        /**
+         * Minutes a polling may wait in the queue before a warning is shown. 0 for {@link GitTagTrigger#STARVATION_THRESHOLD}.
+         */
+        private int starvationThreshold;
+
+        /**
+         * Days tags deleted from a remote are remembered. 0 for no limit.
+         */
+        private int deletedTagRetentionDays;
+
+        /**
+         * How many tags deleted from a remote are remembered per job. 0 for no limit.
+         */
+        private int maxDeletedTags;
+
+        /**
+         * Pollings started per hour toward each host with the same credentials. 0 for no limit.
+         */
+        private int rateLimit;
+
         public DescriptorImpl() {
+            ExecutorService executors = Executors.newSingleThreadExecutor(threadFactory());
+            PollingQueue.Budgets budgets = new PollingQueue.Budgets();
+            queues = new PollingQueue[Math.max(1, POLLING_SHARDS)];
+            for (int i = 0; i < queues.length; i++)
+                queues[i] = new PollingQueue(executors, budgets);
             load();
             resizeThreadPool();
+            setRateLimit(rateLimit);
+        }
+
+        static DescriptorImpl get() {
+            return Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
         }
 
         public boolean isApplicable(Item item) {
@@ -245,28 +575,152 @@ public class GitTagTrigger extends Trigger<Item> {
         }
 
         public ExecutorService getExecutor() {
-            return queue.getExecutors();
+            return queues[0].getExecutors();
+        }
+
+        /**
+         * The queue the pollings of a job go to.
+         */
+        PollingQueue queueFor(Item job) {
+            return queues[(job.hashCode() & Integer.MAX_VALUE) % queues.length];
         }
 
         /**
          * Returns true if the SCM polling thread queue has too many jobs than it can handle.
          */
         public boolean isClogged() {
-            return queue.isStarving(STARVATION_THRESHOLD);
+            return getOldestPendingAge() > getStarvationThreshold();
+        }
+
+        private long getOldestPendingAge() {
+            long age = 0;
+            for (PollingQueue queue : queues)
+                age = Math.max(age, queue.getOldestPendingAge());
+            return age;
         }
 
         /**
-         * Checks if the queue is clogged, and if so, activate {@link AdministrativeMonitorImpl}.
+         * Checks if the queue is clogged, and if so, activate {@link AdministrativeMonitorImpl}. Once activated, the
+         * monitor stays on until no polling has been waiting for more than half the threshold, so it does not flap.
          */
         public void clogCheck() {
-            AdministrativeMonitor.all().get(AdministrativeMonitorImpl.class).on = isClogged();
+            AdministrativeMonitorImpl monitor = AdministrativeMonitor.all().get(AdministrativeMonitorImpl.class);
+            if (monitor == null)
+                return;
+            long age = getOldestPendingAge();
+            long threshold = getStarvationThreshold();
+            if (!monitor.on && age > threshold)
+                monitor.on = true;
+            else if (monitor.on && age < threshold / 2)
+                monitor.on = false;
+        }
+
+        /**
+         * How long a polling may wait in the queue before the queue is considered clogged, in milliseconds.
+         */
+        public long getStarvationThreshold() {
+            return starvationThreshold > 0 ? TimeUnit2.MINUTES.toMillis(starvationThreshold) : STARVATION_THRESHOLD;
         }
 
         /**
          * Gets the snapshot of {@link Runner}s that are performing polling.
          */
         public List<Runner> getRunners() {
-            return Util.filter(queue.getInProgress(), Runner.class);
+            List<Runner> runners = new ArrayList<>();
+            for (PollingQueue queue : queues)
+                runners.addAll(Util.filter(queue.getInProgress(), Runner.class));
+            return runners;
+        }
+
+        /**
+         * The current state of the polling queue, with the {@link #SNAPSHOT_WAITING} longest waiting pollings.
+         */
+        public PollingQueue.Snapshot getSnapshot() {
+            return PollingQueue.snapshot(queues, SNAPSHOT_WAITING);
+        }
+
+        /**
+         * A page of the running pollings of a snapshot.
+         */
+        @Restricted(NoExternalUse.class)
+        public List<PollingQueue.Task> getRunningPage(PollingQueue.Snapshot snapshot, int start) {
+            List<PollingQueue.Task> running = snapshot.getRunning();
+            int from = Math.min(start, running.size());
+            return running.subList(from, Math.min(running.size(), from + SNAPSHOT_PAGE));
+        }
+
+        @Restricted(NoExternalUse.class)
+        public int getPageStart(String start) {
+            try {
+                return start == null ? 0 : Math.max(0, Integer.parseInt(start));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Restricted(NoExternalUse.class)
+        public int getPageSize() {
+            return SNAPSHOT_PAGE;
+        }
+
+        /**
+         * How long a task has been waiting or running at the time of the snapshot.
+         */
+        @Restricted(NoExternalUse.class)
+        public String getAge(PollingQueue.Snapshot snapshot, PollingQueue.Task task) {
+            return Util.getTimeSpanString(snapshot.getTakenAt() - task.getSince());
+        }
+
+        /**
+         * The current state of the polling queue as JSON.
+         */
+        public void doSnapshot(StaplerResponse rsp) throws IOException {
+            Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+            PollingQueue.Snapshot snapshot = getSnapshot();
+
+            JSONObject result = new JSONObject();
+            result.put("running", snapshot.getRunningCount());
+            result.put("pending", snapshot.getPendingCount());
+            JSONArray hosts = new JSONArray();
+            for (PollingQueue.HostCount count : snapshot.getHosts().values()) {
+                JSONObject host = new JSONObject();
+                host.put("host", count.getHost());
+                host.put("running", count.getRunning());
+                host.put("pending", count.getPending());
+                hosts.add(host);
+            }
+            result.put("hosts", hosts);
+            JSONArray budgets = new JSONArray();
+            for (PollingQueue.Budget b : snapshot.getBudgets().values()) {
+                JSONObject budget = new JSONObject();
+                budget.put("host", b.getHost());
+                budget.put("credentials", b.getBudget());
+                budget.put("tokens", b.getTokens());
+                budget.put("capacity", b.getCapacity());
+                budget.put("throttled", b.getThrottled());
+                budgets.add(budget);
+            }
+            result.put("budgets", budgets);
+            result.put("runningPollings", toJSON(snapshot.getRunning(), snapshot.getTakenAt()));
+            result.put("longestWaiting", toJSON(snapshot.getLongestWaiting(), snapshot.getTakenAt()));
+
+            rsp.setContentType("application/json;charset=UTF-8");
+            result.write(rsp.getWriter());
+        }
+
+        private static JSONArray toJSON(List<PollingQueue.Task> tasks, long now) {
+            JSONArray result = new JSONArray();
+            for (PollingQueue.Task task : tasks) {
+                if (!(task.getTask() instanceof Runner))
+                    continue;
+                Runner runner = (Runner) task.getTask();
+                JSONObject json = new JSONObject();
+                json.put("job", runner.getTarget().asItem().getFullName());
+                json.put("host", runner.getHost());
+                json.put("millis", now - task.getSince());
+                result.add(json);
+            }
+            return result;
         }
 
         // originally List<SCMedItem> but known to be used only for logging, in which case the instances are not actually cast to SCMedItem anyway
@@ -293,18 +747,141 @@ public class GitTagTrigger extends Trigger<Item> {
         /**
          * Sets the number of concurrent threads used for SCM polling and resizes the thread pool accordingly
          *
-         * @param n number of concurrent threads, zero or less means unlimited, maximum is 100
+         * @param n number of concurrent threads, zero or less means unlimited, maximum is 100 (10000 with virtual threads)
          */
         public void setPollingThreadCount(int n) {
             // fool proof
             if (n < 0) n = 0;
-            if (n > 100) n = 100;
+            if (n > MAX_PLATFORM_THREADS && !isVirtualThreadsActive()) n = MAX_PLATFORM_THREADS;
+            if (n > MAX_VIRTUAL_THREADS) n = MAX_VIRTUAL_THREADS;
 
             maximumThreads = n;
 
             resizeThreadPool();
         }
 
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        /**
+         * Runs pollings on virtual threads instead of a pool of platform threads, if the JVM supports them.
+         */
+        public void setVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            resizeThreadPool();
+        }
+
+        @Restricted(NoExternalUse.class)
+        public boolean isVirtualThreadsSupported() {
+            return VIRTUAL_THREADS_SUPPORTED;
+        }
+
+        private boolean isVirtualThreadsActive() {
+            return virtualThreads && VIRTUAL_THREADS_SUPPORTED;
+        }
+
+        public int getPollingTimeout() {
+            return pollingTimeout;
+        }
+
+        /**
+         * @param seconds max duration of a single polling, zero or less means unlimited
+         */
+        public void setPollingTimeout(int seconds) {
+            pollingTimeout = Math.max(0, seconds);
+        }
+
+        public int getRemoteTimeout() {
+            return remoteTimeout;
+        }
+
+        /**
+         * @param seconds max duration of a single attempt to list the tags of a remote, zero or less means unlimited
+         */
+        public void setRemoteTimeout(int seconds) {
+            remoteTimeout = Math.max(0, seconds);
+        }
+
+        public int getPollingRetries() {
+            return pollingRetries;
+        }
+
+        public void setPollingRetries(int retries) {
+            pollingRetries = Math.max(0, retries);
+        }
+
+        /**
+         * @return the configured warning level in minutes, 0 if the default applies
+         */
+        public int getStarvationThresholdMinutes() {
+            return starvationThreshold;
+        }
+
+        public void setStarvationThresholdMinutes(int minutes) {
+            starvationThreshold = Math.max(0, minutes);
+        }
+
+        public int getDeletedTagRetentionDays() {
+            return deletedTagRetentionDays;
+        }
+
+        public void setDeletedTagRetentionDays(int days) {
+            deletedTagRetentionDays = Math.max(0, days);
+        }
+
+        /**
+         * @return how long tags deleted from a remote are remembered in milliseconds, 0 for no limit
+         */
+        public long getDeletedTagRetention() {
+            return TimeUnit2.DAYS.toMillis(deletedTagRetentionDays);
+        }
+
+        public int getMaxDeletedTags() {
+            return maxDeletedTags;
+        }
+
+        public void setMaxDeletedTags(int count) {
+            maxDeletedTags = Math.max(0, count);
+        }
+
+        public int getRateLimit() {
+            return rateLimit;
+        }
+
+        /**
+         * @param perHour pollings started per hour toward each host with the same credentials, zero or less for no limit
+         */
+        public void setRateLimit(int perHour) {
+            rateLimit = Math.max(0, perHour);
+            // the queues share the buckets, so only the first one sees the change
+            queues[0].setRateLimit(rateLimit);
+            for (int i = 1; i < queues.length; i++)
+                queues[i].releaseThrottled();
+        }
+
+        public String getPollingLabel() {
+            return pollingLabel;
+        }
+
+        /**
+         * @param label label expression of the agents to poll on, null or empty to poll on the controller
+         */
+        public void setPollingLabel(String label) {
+            pollingLabel = Util.fixEmptyAndTrim(label);
+        }
+
+        public int getMirrorCacheSize() {
+            return mirrorCacheSize;
+        }
+
+        /**
+         * @param megabytes disk space the repository mirrors may take on each node, zero or less disables the mirror cache
+         */
+        public void setMirrorCacheSize(int megabytes) {
+            mirrorCacheSize = Math.max(0, megabytes);
+        }
+
         @Restricted(NoExternalUse.class)
         public boolean isPollingThreadCountOptionVisible() {
             // unless you have a fair number of projects, this option is likely pointless.
@@ -315,22 +892,44 @@ public class GitTagTrigger extends Trigger<Item> {
         }
 
         /**
-         * Update the {@link ExecutorService} instance.
+         * Update the {@link ExecutorService} instance. A thread count set for virtual threads is capped to
+         * {@link #MAX_PLATFORM_THREADS} while platform threads are used instead, e.g. after moving to a JVM without
+         * virtual threads, but kept as configured.
          */
         /*package*/
         synchronized void resizeThreadPool() {
-            queue.setExecutors(
-                    (maximumThreads == 0 ? Executors.newCachedThreadPool(threadFactory()) : Executors.newFixedThreadPool(maximumThreads, threadFactory())));
+            // a virtual thread per polling; the queues cap how many run at once
+            ExecutorService executors = isVirtualThreadsActive() ? newVirtualThreadExecutor() : null;
+            int threads = maximumThreads;
+            if (executors == null) {
+                threads = Math.min(threads, MAX_PLATFORM_THREADS);
+                executors = threads == 0 ? Executors.newCachedThreadPool(threadFactory()) : Executors.newFixedThreadPool(threads, threadFactory());
+            }
+            // a share of the threads for each queue, at least one
+            int perQueue = threads == 0 ? 0 : (threads + queues.length - 1) / queues.length;
+            for (PollingQueue queue : queues)
+                queue.setExecutors(executors, perQueue);
         }
 
         @Override
         public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            virtualThreads = json.optBoolean("virtualThreads", virtualThreads);
             String t = json.optString("pollingThreadCount", null);
             if (t == null || t.length() == 0)
                 setPollingThreadCount(0);
             else
                 setPollingThreadCount(Integer.parseInt(t));
 
+            setPollingTimeout(json.optInt("pollingTimeout", pollingTimeout));
+            setRemoteTimeout(json.optInt("remoteTimeout", remoteTimeout));
+            setPollingRetries(json.optInt("pollingRetries", pollingRetries));
+            setMirrorCacheSize(json.optInt("mirrorCacheSize", mirrorCacheSize));
+            setPollingLabel(json.optString("pollingLabel", pollingLabel));
+            setStarvationThresholdMinutes(json.optInt("starvationThresholdMinutes", starvationThreshold));
+            setDeletedTagRetentionDays(json.optInt("deletedTagRetentionDays", deletedTagRetentionDays));
+            setMaxDeletedTags(json.optInt("maxDeletedTags", maxDeletedTags));
+            setRateLimit(json.optInt("rateLimit", rateLimit));
+
             // Save configuration
             save();
 
@@ -342,17 +941,78 @@ public class GitTagTrigger extends Trigger<Item> {
                 return FormValidation.ok();
             return FormValidation.validateNonNegativeInteger(value);
         }
+
+        public FormValidation doCheckPollingTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckRemoteTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckPollingRetries(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckPollingLabel(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null)
+                return FormValidation.ok();
+            try {
+                Label label = Label.parseExpression(value);
+                if (label.getNodes().isEmpty())
+                    return FormValidation.warning("No agent matches this label, polling on the controller");
+                return FormValidation.ok();
+            } catch (ANTLRException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckStarvationThresholdMinutes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMirrorCacheSize(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckDeletedTagRetentionDays(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxDeletedTags(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckRateLimit(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
     }
 
     @Extension
     public static final class AdministrativeMonitorImpl extends AdministrativeMonitor {
-        private boolean on;
+        private volatile boolean on;
 
         public boolean isActivated() {
             return on;
         }
     }
 
+    /**
+     * Samples the age of the longest waiting polling, rather than checking it every time a polling is queued.
+     */
+    @Extension
+    public static final class ClogSampler extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return CLOG_SAMPLE_PERIOD;
+        }
+
+        @Override
+        protected void doRun() {
+            DescriptorImpl.get().clogCheck();
+        }
+    }
+
     /**
      * Associated with {@link Run} to show the polling log that triggered that build.
      *
@@ -416,8 +1076,18 @@ public class GitTagTrigger extends Trigger<Item> {
             }
         }
 
-        public AnnotatedLargeText getPollingLogText() {
-            return new AnnotatedLargeText<BuildAction>(getPollingLogFile(), Charset.defaultCharset(), true, this);
+        /**
+         * The polling log, from the {@link PollRecord} of the cause or, for builds of earlier versions, from
+         * {@link #getPollingLogFile()}.
+         */
+        public AnnotatedLargeText getPollingLogText() throws IOException {
+            GitTagTriggerCause cause = run.getCause(GitTagTriggerCause.class);
+            if (cause == null || cause.getPollId() == 0)
+                return new AnnotatedLargeText<BuildAction>(getPollingLogFile(), Charset.defaultCharset(), true, this);
+            PollRecord record = cause.getRecord();
+            ByteBuffer text = new ByteBuffer();
+            text.write((record != null ? record.render() : Messages.GitTagTrigger_BuildAction_PollingLogGone() + "\n").getBytes(PollLog.CHARSET));
+            return new AnnotatedLargeText<BuildAction>(text, PollLog.CHARSET, true, this);
         }
 
         /**
@@ -473,7 +1143,114 @@ public class GitTagTrigger extends Trigger<Item> {
         }
 
         public String getLog() throws IOException {
-            return Util.loadFile(getLogFile());
+            PollRecord record = getLastPoll();
+            return record != null ? record.render() : Util.loadFile(getLogFile());
+        }
+
+        /**
+         * Whether there is no polling log yet.
+         */
+        public boolean isLogEmpty() {
+            return currentPoll == null && getLastPoll() == null && getLogFile().length() == 0;
+        }
+
+        /**
+         * Whether the job is being polled right now, so the log is still growing.
+         */
+        public boolean isPolling() {
+            // the same check getLogText() makes, rather than setting up a Runner to look it up in the queue
+            return currentPoll != null;
+        }
+
+        /**
+         * The polling log, complete unless a polling is running. The log of a running polling is a prefix of the log
+         * rendered when it completes, so offsets stay valid for live viewing.
+         */
+        public AnnotatedLargeText<GitTriggerAction> getLogText() throws IOException {
+            PollLog current = currentPoll;
+            ByteBuffer text = new ByteBuffer();
+            if (current != null) {
+                current.writeTo(text);
+                return new AnnotatedLargeText<GitTriggerAction>(text, PollLog.CHARSET, false, this);
+            }
+            PollRecord record = getLastPoll();
+            if (record == null)
+                return new AnnotatedLargeText<GitTriggerAction>(getLogFile(), Charset.defaultCharset(), true, this);
+            text.write(record.render().getBytes(PollLog.CHARSET));
+            return new AnnotatedLargeText<GitTriggerAction>(text, PollLog.CHARSET, true, this);
+        }
+
+        /**
+         * Serves the part of the polling log after the offset given by the {@code start} parameter, for live viewing.
+         */
+        public void doProgressiveHtml(StaplerRequest req, StaplerResponse rsp) throws IOException {
+            getItem().checkPermission(Item.READ);
+            getLogText().doProgressiveHtml(req, rsp);
+        }
+
+        public boolean isPollNowPermitted() {
+            return getItem().hasPermission(Item.BUILD);
+        }
+
+        /**
+         * Polls the job ahead of periodic and post-commit pollings.
+         */
+        @RequirePOST
+        public void doPollNow(StaplerRequest req, StaplerResponse rsp) throws IOException {
+            getItem().checkPermission(Item.BUILD);
+            GitTagTrigger.this.run(null, PollPriority.MANUAL);
+            rsp.sendRedirect(".");
+        }
+
+        /**
+         * The tags recorded for the job as JSON, most recently seen first. {@code prefix} restricts them to tag names
+         * starting with it, {@code start} and {@code limit} select a page.
+         */
+        public void doHistory(StaplerResponse rsp, @QueryParameter String prefix, @QueryParameter String start, @QueryParameter String limit) throws IOException {
+            Item item = getItem();
+            item.checkPermission(Item.READ);
+            if (!(item instanceof Job)) {
+                rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            TagStore.HistoryPage history = Storage.forJob((Job<?, ?>) item).getHistory(Util.fixNull(prefix), parseInt(start, 0),
+                    Math.min(Math.max(1, parseInt(limit, 100)), MAX_HISTORY_PAGE));
+
+            JSONArray tags = new JSONArray();
+            for (TagStore.HistoryEntry entry : history.getEntries()) {
+                JSONObject tag = new JSONObject();
+                tag.put("tag", entry.getTag());
+                tag.put("sha", entry.getSha().name());
+                tag.put("remote", entry.getRemote());
+                tag.put("firstSeen", entry.getFirstSeen());
+                if (entry.getPollId() != 0)
+                    tag.put("pollId", entry.getPollId());
+                if (entry.getBuildNumber() != 0)
+                    tag.put("build", entry.getBuildNumber());
+                if (entry.getDeletedAt() != 0)
+                    tag.put("deleted", entry.getDeletedAt());
+                if (entry.getInfo() != null) {
+                    tag.put("tagger", entry.getInfo().getTagger());
+                    tag.put("tagDate", entry.getInfo().getDate());
+                }
+                tags.add(tag);
+            }
+            JSONObject result = new JSONObject();
+            result.put("total", history.getTotal());
+            result.put("start", history.getStart());
+            result.put("tags", tags);
+
+            rsp.setContentType("application/json;charset=UTF-8");
+            result.write(rsp.getWriter());
+        }
+
+        private int parseInt(String value, int defaultValue) {
+            try {
+                return value == null ? defaultValue : Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
         }
 
         /**
@@ -482,7 +1259,7 @@ public class GitTagTrigger extends Trigger<Item> {
          * @since 1.350
          */
         public void writeLogTo(XMLOutput out) throws IOException {
-            new AnnotatedLargeText<GitTriggerAction>(getLogFile(), Charset.defaultCharset(), true, this).writeHtmlTo(0, out.asWriter());
+            getLogText().writeHtmlTo(0, out.asWriter());
         }
     }
 
@@ -491,15 +1268,24 @@ public class GitTagTrigger extends Trigger<Item> {
     /**
      * {@link Runnable} that actually performs polling.
      */
-    public class Runner implements Runnable {
+    public class Runner implements Runnable, PollingQueue.Budgeted, PollingQueue.Mergeable {
 
         /**
          * When did the polling start?
          */
         private volatile long startTime;
 
+        /**
+         * Whether this polling serves a periodic polling request, which the {@link PollScheduler} waits for.
+         */
+        private volatile boolean periodic;
+
         private Action[] additionalActions;
 
+        private final String host;
+
+        private final String budget;
+
         public Runner() {
             this(null);
         }
@@ -512,6 +1298,56 @@ public class GitTagTrigger extends Trigger<Item> {
             } else {
                 additionalActions = actions;
             }
+            host = getPolledHost();
+            budget = getCredentialsId();
+        }
+
+        private String getPolledHost() {
+            for (SCM scm : job().getSCMs()) {
+                if (scm instanceof GitSCM) {
+                    try {
+                        return CircuitBreaker.hostOf(new URIish(GitTagHelper.getPolledRemote((GitSCM) scm)));
+                    } catch (URISyntaxException e) {
+                        return "";
+                    }
+                }
+            }
+            return "";
+        }
+
+        private String getCredentialsId() {
+            for (SCM scm : job().getSCMs()) {
+                if (scm instanceof GitSCM) {
+                    List<UserRemoteConfig> remotes = ((GitSCM) scm).getUserRemoteConfigs();
+                    return remotes.isEmpty() ? "" : Util.fixNull(remotes.get(0).getCredentialsId());
+                }
+            }
+            return "";
+        }
+
+        /**
+         * The host of the polled remote, "" if unknown.
+         */
+        @Override
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * The credentials used toward the host, "" if none.
+         */
+        @Override
+        public String getBudget() {
+            return budget;
+        }
+
+        /**
+         * Read when the polling is dispatched, and only if a rate limit is set, as the first call may load the tag
+         * store.
+         */
+        @Override
+        public long getLastTagged() {
+            return GitTagTrigger.this.getLastTagged();
         }
 
         /**
@@ -544,33 +1380,33 @@ public class GitTagTrigger extends Trigger<Item> {
             return Util.getTimeSpanString(System.currentTimeMillis() - startTime);
         }
 
-        private Set<String> runPolling() {
+        private Map<String, ObjectId> runPolling() {
+            PollLog log = PollLog.start(job.getFullName(), startTime);
+            currentPoll = log;
+            Map<String, ObjectId> newTags = Collections.emptyMap();
+            PollRecord.Outcome outcome = PollRecord.Outcome.FAILED;
             try {
-                // to make sure that the log file contains up-to-date text,
-                // don't do buffering.
-                StreamTaskListener listener = new StreamTaskListener(getLogFile());
-
-                try {
-                    PrintStream logger = listener.getLogger();
-                    long start = System.currentTimeMillis();
-                    logger.println("Started on " + DateFormat.getDateTimeInstance().format(new Date()));
-                    Set<String> newTags = filterTags(job().poll(listener));
-                    logger.println("Done. Took " + Util.getTimeSpanString(System.currentTimeMillis() - start));
-                    if (newTags.size() > 0)
-                        logger.println("Changes found");
-                    else
-                        logger.println("No changes");
-                    return newTags;
-                } catch (Error | RuntimeException e) {
-                    e.printStackTrace(listener.error("Failed to record SCM polling for " + job));
-                    LOGGER.log(Level.SEVERE, "Failed to record SCM polling for " + job, e);
-                    throw e;
-                } finally {
-                    listener.close();
+                try (Deadline deadline = Deadline.start(TimeUnit2.SECONDS.toMillis(getDescriptor().getPollingTimeout()))) {
+                    newTags = filterTags(tagFilter, job().poll(log.getListener(), startTime));
+                    outcome = deadline.isExpired() ? PollRecord.Outcome.TIMED_OUT : PollRecord.Outcome.OK;
                 }
-            } catch (IOException e) {
+                return newTags;
+            } catch (Error | RuntimeException e) {
+                e.printStackTrace(log.getListener().error("Failed to record SCM polling for " + job));
                 LOGGER.log(Level.SEVERE, "Failed to record SCM polling for " + job, e);
-                return new HashSet<>();
+                throw e;
+            } finally {
+                PollRecord record = log.finish(outcome, newTags.keySet());
+                lastPoll = record;
+                lastPollLoaded = true;
+                currentPoll = null;
+                try {
+                    PollJournal.forJob(job).append(record);
+                    // superseded by the journal
+                    Files.deleteIfExists(getLogFile().toPath());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to record the polling of " + job, e);
+                }
             }
         }
 
@@ -583,54 +1419,96 @@ public class GitTagTrigger extends Trigger<Item> {
             Thread.currentThread().setName("SCM polling for " + job);
             try {
                 startTime = System.currentTimeMillis();
-                for (String tag : runPolling()) {
-                    GitTagTriggerItem p = job();
-                    GitTagTriggerCause cause;
-                    try {
-                        cause = new GitTagTriggerCause(getLogFile());
-                    } catch (IOException e) {
-                        LOGGER.log(WARNING, "Failed to parse the polling log", e);
-                        cause = new GitTagTriggerCause();
+                Map<String, ObjectId> newTags = runPolling();
+                if (!newTags.isEmpty()) {
+                    GitTagTrigger.this.lastTagged = startTime;
+                    for (SCM scm : job().getSCMs()) {
+                        if (scm instanceof GitSCM)
+                            MirrorCache.onNewTags(job, (GitSCM) scm);
                     }
+                }
+                if (supersede && newTags.size() > 1) {
+                    String newest = Collections.max(newTags.keySet(), VERSION_ORDER);
+                    newTags = Collections.singletonMap(newest, newTags.get(newest));
+                }
+                TagParameters tagParameters = newTags.isEmpty() ? null : new TagParameters(job);
+                Map<String, TagInfo> tagInfo = fetchTagMetadata && !newTags.isEmpty() ? getTagInfo() : Collections.<String, TagInfo>emptyMap();
+                for (Map.Entry<String, ObjectId> newTag : newTags.entrySet()) {
+                    String tag = newTag.getKey();
+                    GitTagTriggerItem p = job();
+                    if (supersede && !supersedeQueuedTagBuilds(tag))
+                        continue;
+                    GitTagTriggerCause cause = new GitTagTriggerCause(startTime, tag, newTag.getValue());
+                    // a single ParametersAction, so that the queue only merges builds of the same tag
+                    List<ParameterValue> parameters = tagParameters.forTag(tag, newTag.getValue(), tagInfo.get(tag));
                     Action[] queueActions = new Action[additionalActions.length + 3];
                     queueActions[0] = new CauseAction(cause);
-                    queueActions[1] = new ParametersAction(new TextParameterValue("tagName", tag));
-                    queueActions[2] = new ParametersAction(getDefaultParametersValues());
+                    queueActions[1] = new ParametersAction(parameters);
+                    queueActions[2] = new TagCheckoutAction(tag, newTag.getValue());
                     System.arraycopy(additionalActions, 0, queueActions, 3, additionalActions.length);
                     if (p.scheduleBuild2(p.getQuietPeriod(), queueActions) != null) {
-                        LOGGER.info("New Git Tags changes detected in " + job.getFullDisplayName() + ". Triggering build.");
+                        LOGGER.info("New Git Tag " + tag + " detected in " + job.getFullDisplayName() + ". Triggering build.");
                     } else {
-                        LOGGER.info("New Git Tags detected in " + job.getFullDisplayName() + ". Job is already in the queue");
+                        LOGGER.info("New Git Tag " + tag + " detected in " + job.getFullDisplayName() + ". It is already in the queue");
                     }
                 }
             } finally {
                 Thread.currentThread().setName(threadName);
+                if (periodic)
+                    getDescriptor().scheduler.completed(GitTagTrigger.this);
             }
         }
 
-        private List<ParameterValue> getDefaultParametersValues() {
-            ParametersDefinitionProperty paramDefProp = ((FreeStyleProject) job).getProperty(ParametersDefinitionProperty.class);
-            ArrayList<ParameterValue> defValues = new ArrayList<ParameterValue>();
-
-        /*
-         * This check is made ONLY if someone will call this method even if isParametrized() is false.
+        /**
+         * The metadata recorded for the annotated tags of the polled remote.
          */
-            if (paramDefProp == null)
-                return defValues;
-
-        /* Scan for all parameter with an associated default values */
-            for (ParameterDefinition paramDefinition : paramDefProp.getParameterDefinitions()) {
-                ParameterValue defaultValue = paramDefinition.getDefaultParameterValue();
+        private Map<String, TagInfo> getTagInfo() {
+            if (job instanceof Job) {
+                for (SCM scm : job().getSCMs()) {
+                    if (scm instanceof GitSCM) {
+                        try {
+                            return Storage.forJob((Job<?, ?>) job).getTagInfo(GitTagHelper.getPolledRemote((GitSCM) scm));
+                        } catch (IOException e) {
+                            LOGGER.log(WARNING, "Failed to read the tag metadata of " + job.getFullName(), e);
+                        }
+                    }
+                }
+            }
+            return Collections.emptyMap();
+        }
 
-                if (paramDefinition.getName().equals("tagName")) continue;
-                if (defaultValue != null)
-                    defValues.add(defaultValue);
+        /**
+         * Removes the builds of lower versions than the new tag this trigger has queued and that have not started yet.
+         *
+         * @return false if a build of a higher version is queued, so the new tag is superseded itself
+         */
+        private boolean supersedeQueuedTagBuilds(String newTag) {
+            if (!(job instanceof Queue.Task))
+                return true;
+            Queue queue = Queue.getInstance();
+            List<Queue.Item> items = queue.getItems((Queue.Task) job);
+            for (Queue.Item item : items) {
+                TagCheckoutAction action = item.getAction(TagCheckoutAction.class);
+                if (action != null && VERSION_ORDER.compare(action.getTag(), newTag) > 0) {
+                    LOGGER.info("Git Tag " + newTag + " of " + job.getFullDisplayName() + " superseded by " + action.getTag() + ", which is already in the queue");
+                    return false;
+                }
+            }
+            for (Queue.Item item : items) {
+                TagCheckoutAction action = item.getAction(TagCheckoutAction.class);
+                if (action != null && VERSION_ORDER.compare(action.getTag(), newTag) < 0 && queue.cancel(item))
+                    LOGGER.info("Git Tag " + action.getTag() + " of " + job.getFullDisplayName() + " superseded by " + newTag + ", removed from the queue");
             }
+            return true;
+        }
 
-            return defValues;
+        @Override
+        public void merged(Runnable request, PollPriority priority) {
+            if (priority == PollPriority.CRON)
+                periodic = true;
         }
 
-        // as per the requirement of SequentialExecutionQueue, value equality is necessary
+        // as per the requirement of PollingQueue, value equality is necessary
         @Override
         public boolean equals(Object that) {
             return that instanceof Runner && job == ((Runner) that)._job();
@@ -646,14 +1524,17 @@ public class GitTagTrigger extends Trigger<Item> {
         }
     }
 
-    private Set<String> filterTags(Set<String> tags) {
+    /**
+     * Returns the tags matching the given filter, or all tags if no filter is configured.
+     */
+    static <V> Map<String, V> filterTags(String tagFilter, Map<String, V> tags) {
         if (tagFilter == null || tagFilter.equals(""))
             return tags;
         Pattern pattern = Pattern.compile(tagFilter);
-        HashSet<String> res = new HashSet<>();
-        for (String tag : tags)
-            if (pattern.matcher(tag).matches())
-                res.add(tag);
+        HashMap<String, V> res = new HashMap<>();
+        for (Map.Entry<String, V> tag : tags.entrySet())
+            if (pattern.matcher(tag.getKey()).matches())
+                res.put(tag.getKey(), tag.getValue());
         return res;
     }
 
@@ -665,9 +1546,23 @@ public class GitTagTrigger extends Trigger<Item> {
     public static class GitTagTriggerCause extends Cause {
         /**
          * Only used while ths cause is in the queue. Once attached to the build, we'll move this into a file to reduce the memory footprint.
+         * Null for causes that refer to a {@link PollRecord} instead.
          */
         private String pollingLog;
 
+        /**
+         * Start time of the polling that triggered the build, which identifies its {@link PollRecord} in the
+         * {@link PollJournal} of the job; 0 for causes that carry the polling log as text.
+         */
+        private final long pollId;
+
+        /**
+         * The tag and commit the build was triggered for; null for causes recorded by earlier versions.
+         */
+        private final String tag;
+
+        private final String sha;
+
         private transient Run run;
 
         public GitTagTriggerCause(File logFile) throws IOException {
@@ -677,6 +1572,51 @@ public class GitTagTrigger extends Trigger<Item> {
 
         public GitTagTriggerCause(String pollingLog) {
             this.pollingLog = pollingLog;
+            this.pollId = 0;
+            this.tag = null;
+            this.sha = null;
+        }
+
+        public GitTagTriggerCause(File logFile, String tag, ObjectId sha) throws IOException {
+            this(FileUtils.readFileToString(logFile), tag, sha);
+        }
+
+        public GitTagTriggerCause(String pollingLog, String tag, ObjectId sha) {
+            this.pollingLog = pollingLog;
+            this.pollId = 0;
+            this.tag = tag;
+            this.sha = sha.name();
+        }
+
+        public GitTagTriggerCause(long pollId, String tag, ObjectId sha) {
+            this.pollId = pollId;
+            this.tag = tag;
+            this.sha = sha.name();
+        }
+
+        /**
+         * Start time of the polling that triggered the build, 0 for causes that carry the polling log as text.
+         */
+        public long getPollId() {
+            return pollId;
+        }
+
+        /**
+         * The polling that triggered the build, looked up in the journal of the job; null for causes that carry the
+         * polling log as text, before the cause is added to a build, or once the journal no longer keeps the polling.
+         */
+        public PollRecord getRecord() throws IOException {
+            if (pollId == 0 || run == null)
+                return null;
+            return PollJournal.forJob(run.getParent()).find(pollId);
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public String getSha() {
+            return sha;
         }
 
         /**
@@ -695,13 +1635,16 @@ public class GitTagTrigger extends Trigger<Item> {
         @Override
         public void onAddedTo(Run build) {
             this.run = build;
-            try {
-                BuildAction a = new BuildAction(build);
-                FileUtils.writeStringToFile(a.getPollingLogFile(), pollingLog);
-                build.replaceAction(a);
-            } catch (IOException e) {
-                LOGGER.log(WARNING, "Failed to persist the polling log", e);
+            BuildAction a = new BuildAction(build);
+            if (pollingLog != null) {
+                try {
+                    FileUtils.writeStringToFile(a.getPollingLogFile(), pollingLog);
+                } catch (IOException e) {
+                    LOGGER.log(WARNING, "Failed to persist the polling log", e);
+                    return;
+                }
             }
+            build.replaceAction(a);
             pollingLog = null;
         }
 
@@ -715,14 +1658,20 @@ public class GitTagTrigger extends Trigger<Item> {
             return this.run;
         }
 
+        /**
+         * Causes are equal if they are for the same tag and commit.
+         */
         @Override
         public boolean equals(Object o) {
-            return o instanceof GitTagTriggerCause;
+            if (!(o instanceof GitTagTriggerCause))
+                return false;
+            GitTagTriggerCause that = (GitTagTriggerCause) o;
+            return Util.fixNull(tag).equals(Util.fixNull(that.tag)) && Util.fixNull(sha).equals(Util.fixNull(that.sha));
         }
 
         @Override
         public int hashCode() {
-            return 3;
+            return 31 * Util.fixNull(tag).hashCode() + Util.fixNull(sha).hashCode();
         }
     }
 
@@ -731,6 +1680,107 @@ public class GitTagTrigger extends Trigger<Item> {
      */
     public static long STARVATION_THRESHOLD = Long.getLong(GitTagTrigger.class.getName() + ".starvationThreshold", TimeUnit2.HOURS.toMillis(1));
 
+    /**
+     * Orders tag names as versions: runs of digits compare by their numeric value, so "v1.10" comes after "v1.9".
+     * Of two names that differ only by a suffix, the longer one comes after if its suffix adds version components, like
+     * "v2.0.1" after "v2.0", and before otherwise, like "v2.0.0-rc1" and "v2.0.0.rc1" before "v2.0.0".
+     */
+    static final Comparator<String> VERSION_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int i = 0, j = 0;
+            while (i < a.length() && j < b.length()) {
+                char c = a.charAt(i), d = b.charAt(j);
+                if (Character.isDigit(c) && Character.isDigit(d)) {
+                    int ei = i, ej = j;
+                    while (ei < a.length() && Character.isDigit(a.charAt(ei)))
+                        ei++;
+                    while (ej < b.length() && Character.isDigit(b.charAt(ej)))
+                        ej++;
+                    int result = new BigInteger(a.substring(i, ei)).compareTo(new BigInteger(b.substring(j, ej)));
+                    if (result != 0)
+                        return result;
+                    i = ei;
+                    j = ej;
+                } else {
+                    if (c != d)
+                        return c < d ? -1 : 1;
+                    i++;
+                    j++;
+                }
+            }
+            if (i < a.length())
+                return isComponent(a, i) ? 1 : -1;
+            if (j < b.length())
+                return isComponent(b, j) ? -1 : 1;
+            return 0;
+        }
+
+        private boolean isComponent(String name, int start) {
+            return name.charAt(start) == '.' && start + 1 < name.length() && Character.isDigit(name.charAt(start + 1));
+        }
+    };
+
+    /**
+     * How often the polling queue is checked for pollings waiting too long.
+     */
+    public static long CLOG_SAMPLE_PERIOD = Long.getLong(GitTagTrigger.class.getName() + ".clogSamplePeriod", TimeUnit2.MINUTES.toMillis(1));
+
+    /**
+     * How many of the longest waiting pollings are shown on the polling activities page.
+     */
+    public static int SNAPSHOT_WAITING = Integer.getInteger(GitTagTrigger.class.getName() + ".snapshotWaiting", 20);
+
+    /**
+     * How many running pollings are shown per page on the polling activities page.
+     */
+    public static int SNAPSHOT_PAGE = Integer.getInteger(GitTagTrigger.class.getName() + ".snapshotPage", 100);
+
+    /**
+     * Max number of tags returned by one request to the tag history.
+     */
+    public static int MAX_HISTORY_PAGE = Integer.getInteger(GitTagTrigger.class.getName() + ".maxHistoryPage", 1000);
+
+    /**
+     * Whether periodic pollings are scheduled by the {@link PollScheduler}, rather than by Jenkins checking every
+     * trigger every minute.
+     */
+    public static boolean CENTRAL_SCHEDULER = !Boolean.getBoolean(GitTagTrigger.class.getName() + ".legacyCron");
+
+    /**
+     * Number of polling queues the jobs are spread over. Read once at startup.
+     */
+    public static int POLLING_SHARDS = Integer.getInteger(GitTagTrigger.class.getName() + ".pollingShards", 1);
+
+    /**
+     * Whether the first periodic polling of jobs loaded from disk is spread over their polling interval.
+     */
+    public static boolean STARTUP_JITTER = !Boolean.getBoolean(GitTagTrigger.class.getName() + ".noStartupJitter");
+
+    /**
+     * Wait before the first retry of a failed attempt to list the tags of a remote. Doubles with every further retry.
+     */
+    public static long RETRY_BACKOFF = Long.getLong(GitTagTrigger.class.getName() + ".retryBackoff", TimeUnit2.SECONDS.toMillis(2));
+
+    /**
+     * Upper bound for the wait between retries.
+     */
+    public static long MAX_RETRY_BACKOFF = Long.getLong(GitTagTrigger.class.getName() + ".maxRetryBackoff", TimeUnit2.MINUTES.toMillis(1));
+
+    /**
+     * Whether the repository a post-commit hook notified us about is one of the remotes of the given {@link GitSCM}.
+     */
+    static boolean isNotifiedBy(GitSCM scm, @Nullable URIish uri) {
+        if (uri == null)
+            return false;
+        String notified = uri.toASCIIString();
+        for (RemoteConfig remoteConfig : scm.getRepositories())
+            for (URIish is : remoteConfig.getURIs())
+                if (notified.equalsIgnoreCase(is.toASCIIString()))
+                    return true;
+        return false;
+    }
+
     private static class MyListener extends GitStatus.Listener {
 
         public List<GitStatus.ResponseContributor> onNotifyCommit(String origin, URIish uri, @Nullable String sha1, List<ParameterValue> buildParameters, String... branches) {
@@ -750,24 +1800,12 @@ public class GitTagTrigger extends Trigger<Item> {
                 for (SCM scm : scmTriggerItem.getSCMs()) {
                     if (scm instanceof GitSCM) {
                         GitTagTriggerItem gitTagTriggerItem = GitTagTriggerItem.GitTagTriggerItems.asGitTagTriggerItem(project);
-                        if (gitTagTriggerItem != null) {
-
-                            for (RemoteConfig remoteConfig : ((GitSCM) scm).getRepositories()) {
-                                List<URIish> urIs = remoteConfig.getURIs();
-
-                                for (URIish is : urIs) {
-                                    if (project instanceof FreeStyleProject) {
-                                        FreeStyleProject fp = (FreeStyleProject) project;
-                                        GitTagTrigger trigger = fp.getTrigger(GitTagTrigger.class);
-
-                                        if (trigger != null && uri != null && uri.toASCIIString().equalsIgnoreCase(is.toASCIIString())) {
-                                            LOGGER.info("Found Git Tag Trigger");
-                                            trigger.run();
-                                        }
-
-                                    }
+                        if (gitTagTriggerItem != null && project instanceof FreeStyleProject) {
+                            GitTagTrigger trigger = ((FreeStyleProject) project).getTrigger(GitTagTrigger.class);
 
-                                }
+                            if (trigger != null && isNotifiedBy((GitSCM) scm, uri)) {
+                                LOGGER.info("Found Git Tag Trigger");
+                                trigger.run(null, PollPriority.WEBHOOK);
                             }
                         }
 
@@ -40,6 +40,7 @@ import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import jenkins.model.ParameterizedJobMixIn;
+import org.eclipse.jgit.lib.ObjectId;
 
 /**
  * The item type accepted by {@link GitTagTrigger}.
@@ -60,13 +61,15 @@ public interface GitTagTriggerItem {
     @CheckForNull QueueTaskFuture<?> scheduleBuild2(int quietPeriod, Action... actions);
 
     /**
-     * Returns all newly discovered tags.
+     * Returns all newly discovered tags, with the commits they point to.
      *
      * <p>
      * The implementation is responsible for ensuring mutual exclusion between polling and builds
      * if necessary.
+     *
+     * @param pollId identifies this polling in the tag history
      */
-    @Nonnull Set<String> poll(@Nonnull TaskListener listener);
+    @Nonnull Map<String, ObjectId> poll(@Nonnull TaskListener listener, long pollId);
 
     @CheckForNull GitTagTrigger getGitTagTrigger();
 
@@ -117,9 +120,7 @@ public interface GitTagTriggerItem {
                 return delegate.asProject().scheduleBuild2(quietPeriod, null, actions);
             }
 
-            HashMap<String, Object> locks = new HashMap<>();
-
-            @Override public Set<String> poll(TaskListener listener) {
+            @Override public Map<String, ObjectId> poll(TaskListener listener, long pollId) {
                 //was previously: return delegate.poll(listener);
 
                 boolean found = false;
@@ -132,33 +133,49 @@ public interface GitTagTriggerItem {
 
 
                         try {
-
-                            Object lock;
-                            String projectName = delegate.asProject().getName();
-                            synchronized (locks) {
-                                lock = locks.get(projectName);
-                                if (lock == null) {
-                                    lock = new Object();
-                                    locks.put(projectName, lock);
-                                }
+                            // no lock needed: the store reports each new tag to one polling only, and it lives on the
+                            // controller rather than in a workspace that concurrent builds may be using
+                            long listStart = System.currentTimeMillis();
+                            Map<String, ObjectId> tags = GitTagHelper.pollTags(delegate.asProject(), git, listener);
+                            String remote = GitTagHelper.getPolledRemote(git);
+                            Storage storage = Storage.forJob(delegate.asProject());
+                            AbstractBuild<?, ?> lastBuild = delegate.asProject().getLastBuild();
+                            if (!storage.exists() && lastBuild != null && lastBuild.getWorkspace() != null)
+                                storage.importLegacy(lastBuild.getWorkspace(), remote);
+                            Map<String, ObjectId> newTags = storage.storeNewTags(remote, tags, pollId);
+
+                            GitTagTrigger trigger = getGitTagTrigger();
+                            GitTagTrigger.DescriptorImpl descriptor = GitTagTrigger.DescriptorImpl.get();
+                            Map<String, ObjectId> deletedTags = storage.reconcile(remote, tags, trigger != null && trigger.isForgetDeletedTags(),
+                                    descriptor.getDeletedTagRetention(), descriptor.getMaxDeletedTags());
+                            if (!deletedTags.isEmpty()) {
+                                listener.getLogger().println("Tags deleted from the remote: " + deletedTags.keySet());
+                                GitTagListener.fireDeleted(delegate.asProject(), remote, deletedTags);
                             }
-
-                            Set<String> tags;
-                            synchronized (lock) {
-                                tags = GitTagHelper.pollTags(delegate.asProject(), git, listener);
-                                if (delegate.asProject().getLastBuild() == null ||
-                                        delegate.asProject().getLastBuild().getWorkspace() == null)
-                                    return new HashSet<>();
-                                Storage storage = new Storage(delegate.asProject().getLastBuild().getWorkspace());
-                                tags = storage.storeNewTags(tags);
+                            PollLog log = PollLog.current();
+                            if (log != null)
+                                log.listed(remote, tags.size(), deletedTags.size(), System.currentTimeMillis() - listStart);
+                            if (trigger != null && trigger.isFetchTagMetadata() && !newTags.isEmpty() && tags instanceof GitTagHelper.RemoteTags) {
+                                Map<String, ObjectId> tagObjects = new HashMap<>(((GitTagHelper.RemoteTags) tags).getTagObjects());
+                                tagObjects.keySet().retainAll(newTags.keySet());
+                                // the new tags are recorded as known already, so they must be returned whatever happens here
+                                try {
+                                    storage.storeTagInfo(remote, TagMetadata.fetch(delegate.asProject(), git, tagObjects, listener));
+                                } catch (IOException e) {
+                                    e.printStackTrace(listener.error("Failed to fetch the metadata of the new tags, building them without it"));
+                                } catch (InterruptedException e) {
+                                    listener.error("Fetching the metadata of the new tags was interrupted, building them without it");
+                                    if (!Deadline.isCurrentExpired())
+                                        Thread.currentThread().interrupt();
+                                }
                             }
 
-                            return tags;
+                            return newTags;
 
                         } catch (IOException e) {
-                            e.printStackTrace();
+                            e.printStackTrace(listener.error("Failed to poll for new tags"));
                         } catch (InterruptedException e) {
-                            e.printStackTrace();
+                            listener.error("Polling was interrupted: " + e.getMessage());
                         }
 
                     }
@@ -166,7 +183,7 @@ public interface GitTagTriggerItem {
                 if (!found) {
                     listener.error("No Git Repository found that could be polled for newly created tags.");
                 }
-                return new HashSet<>();
+                return new HashMap<>();
             }
             @Override public GitTagTrigger getGitTagTrigger() {
                 return delegate.asProject().getTrigger(GitTagTrigger.class);
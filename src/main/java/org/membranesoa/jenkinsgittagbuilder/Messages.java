@@ -32,6 +32,10 @@ public class Messages {
         return "Git Tag Polling Log"; // menu item on page describing a build
     }
 
+    public static String GitTagTrigger_BuildAction_PollingLogGone() {
+        return "The log of the polling that triggered this build is no longer kept.";
+    }
+
     public static String GitTagTrigger_getDisplayName(String displayName) {
         return "Git Tag Polling Log (" + displayName + ")";
     }
@@ -39,4 +43,8 @@ public class Messages {
     public static String GitTagTrigger_GitTagTriggerCause_ShortDescription() {
         return "New Git Tag detected.";
     }
+
+    public static String ShallowTagCheckout_DisplayName() {
+        return "Shallow checkout of the tag that triggered the build";
+    }
 }
@@ -0,0 +1,291 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.remoting.VirtualChannel;
+import hudson.util.LogTaskListener;
+import hudson.util.TimeUnit2;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bare mirrors of the repositories polled by {@link GitTagTrigger}, kept on each node that builds their tags, so that
+ * clones can borrow objects from them instead of downloading everything again.
+ *
+ * Mirrors live in {@code git-tag-builder/mirrors} under the root directory of the node, one per remote URL. When the
+ * mirrors of a node take more than {@link GitTagTrigger.DescriptorImpl#getMirrorCacheSize()}, the least recently used
+ * ones are deleted, except those that builds running on the node borrow objects from. A workspace left borrowing from
+ * a deleted mirror gets it back with its next fetch, as the mirror of a remote always has the same path.
+ */
+public class MirrorCache {
+
+    private static final String MIRRORS = "git-tag-builder/mirrors";
+
+    private static final String LAST_USED = "last-used";
+
+    private static final List<RefSpec> REFSPECS = Arrays.asList(
+            new RefSpec("+refs/heads/*:refs/heads/*"),
+            new RefSpec("+refs/tags/*:refs/tags/*"));
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * For each mirror name, the nodes that have been found holding the mirror.
+     */
+    private static final ConcurrentMap<String, Set<String>> NODES = new ConcurrentHashMap<>();
+
+    private MirrorCache() {
+    }
+
+    public static boolean isEnabled() {
+        return GitTagTrigger.DescriptorImpl.get().getMirrorCacheSize() > 0;
+    }
+
+    /**
+     * Creates or updates the mirror of a remote on a node, then deletes least recently used mirrors beyond the budget.
+     *
+     * @return the path of the mirror on the node, or null if the mirror cache is disabled or the node is offline
+     */
+    public static String update(Node node, Item project, GitSCM scm, URIish remote, String credentialsId, TaskListener listener) throws IOException, InterruptedException {
+        long budget = GitTagTrigger.DescriptorImpl.get().getMirrorCacheSize() * 1024L * 1024L;
+        FilePath root = node.getRootPath();
+        if (budget <= 0 || root == null)
+            return null;
+
+        String name = getMirrorName(remote.toString());
+        FilePath mirror = root.child(MIRRORS).child(name);
+        Object lock = LOCKS.get(node.getNodeName() + " " + name);
+        if (lock == null) {
+            Object existing = LOCKS.putIfAbsent(node.getNodeName() + " " + name, lock = new Object());
+            if (existing != null)
+                lock = existing;
+        }
+
+        synchronized (lock) {
+            GitClient git = Git.with(listener, new EnvVars()).in(mirror).using(scm.getGitExe(node, listener)).getClient();
+            StandardUsernameCredentials credentials = GitTagHelper.lookupCredentials(project, credentialsId, remote.toString());
+            if (credentials != null)
+                git.addDefaultCredentials(credentials);
+            if (!mirror.child("HEAD").exists()) {
+                listener.getLogger().println("Creating mirror of " + remote + " in " + mirror);
+                mirror.mkdirs();
+                git.init_().workspace(mirror.getRemote()).bare(true).execute();
+            }
+            try {
+                git.fetch_().from(remote, REFSPECS).execute();
+            } catch (GitException e) {
+                // a stale mirror is still a good reference
+                listener.getLogger().println("Failed to update mirror " + mirror + ": " + e.getMessage());
+            }
+            mirror.child(LAST_USED).touch(System.currentTimeMillis());
+        }
+
+        Set<String> nodes = NODES.get(name);
+        if (nodes == null) {
+            Set<String> existing = NODES.putIfAbsent(name, nodes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            if (existing != null)
+                nodes = existing;
+        }
+        nodes.add(node.getNodeName());
+
+        Set<String> keep = inUse(node, listener);
+        keep.add(name);
+        List<String> evicted = root.child(MIRRORS).act(new Evict(budget, keep));
+        for (String e : evicted) {
+            listener.getLogger().println("Deleted least recently used mirror " + e);
+            Set<String> holders = NODES.get(e);
+            if (holders != null)
+                holders.remove(node.getNodeName());
+        }
+        return mirror.getRemote();
+    }
+
+    /**
+     * Brings the mirrors of the polled remote of a job up to date in the background, on all nodes known to hold one.
+     */
+    public static void onNewTags(final Item project, final GitSCM scm) {
+        if (!isEnabled() || scm.getUserRemoteConfigs().isEmpty())
+            return;
+
+        final UserRemoteConfig config = scm.getUserRemoteConfigs().get(0);
+        if (config.getUrl() == null || config.getUrl().contains("$"))
+            return; // parameterized URLs are only known to builds
+        final URIish remote;
+        try {
+            remote = new URIish(config.getUrl());
+        } catch (URISyntaxException e) {
+            return;
+        }
+        Set<String> nodes = NODES.get(getMirrorName(remote.toString()));
+        if (nodes == null)
+            return;
+
+        for (final String nodeName : nodes) {
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    Jenkins jenkins = Jenkins.getActiveInstance();
+                    Node node = nodeName.isEmpty() ? jenkins : jenkins.getNode(nodeName);
+                    if (node == null)
+                        return;
+                    try {
+                        update(node, project, scm, remote, config.getCredentialsId(), new LogTaskListener(LOGGER, Level.FINE));
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to update the mirror of " + remote + " on " + node.getDisplayName(), e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * An online node known to hold the mirror of a remote, null if there is none.
+     */
+    public static Node getHolder(URIish remote) {
+        Set<String> nodes = NODES.get(getMirrorName(remote.toString()));
+        if (nodes == null)
+            return null;
+        Jenkins jenkins = Jenkins.getActiveInstance();
+        for (String nodeName : nodes) {
+            Node node = nodeName.isEmpty() ? jenkins : jenkins.getNode(nodeName);
+            Computer computer = node == null ? null : node.toComputer();
+            if (computer != null && computer.isOnline())
+                return node;
+        }
+        return null;
+    }
+
+    private static String getMirrorName(String remote) {
+        return Util.getDigestOf(remote) + ".git";
+    }
+
+    /**
+     * The mirrors that the tag builds running on a node borrow objects from. Their clones would break if these were
+     * deleted while they run.
+     */
+    private static Set<String> inUse(Node node, TaskListener listener) throws InterruptedException {
+        Set<String> names = new HashSet<>();
+        Computer computer = node.toComputer();
+        if (computer == null)
+            return names;
+        List<Executor> executors = new ArrayList<>(computer.getExecutors());
+        executors.addAll(computer.getOneOffExecutors());
+        for (Executor executor : executors) {
+            Queue.Executable executable = executor.getCurrentExecutable();
+            if (!(executable instanceof AbstractBuild))
+                continue;
+            AbstractBuild<?, ?> build = (AbstractBuild<?, ?>) executable;
+            if (build.getAction(TagCheckoutAction.class) == null || !(build.getProject().getScm() instanceof GitSCM))
+                continue;
+            GitSCM scm = (GitSCM) build.getProject().getScm();
+            ShallowTagCheckout checkout = scm.getExtensions().get(ShallowTagCheckout.class);
+            if (checkout == null || checkout.getReference() != null)
+                continue;
+            try {
+                List<RemoteConfig> repos = scm.getParamExpandedRepos(build, listener);
+                if (repos.size() == 1)
+                    names.add(getMirrorName(repos.get(0).getURIs().get(0).toString()));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not tell which mirror " + build + " uses", e);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Deletes the least recently used mirrors until the rest fit into the budget. Mirrors used within the last hour and
+     * the ones in use are kept in any case.
+     */
+    private static class Evict extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final long budget;
+
+        private final Set<String> keep;
+
+        Evict(long budget, Set<String> keep) {
+            this.budget = budget;
+            this.keep = keep;
+        }
+
+        @Override
+        public List<String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            File[] mirrors = dir.listFiles();
+            List<String> evicted = new ArrayList<>();
+            if (mirrors == null)
+                return evicted;
+
+            Arrays.sort(mirrors, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(lastUsed(b), lastUsed(a));
+                }
+            });
+            long used = 0;
+            long recent = System.currentTimeMillis() - TimeUnit2.HOURS.toMillis(1);
+            for (File mirror : mirrors) {
+                long size = size(mirror);
+                if (used + size > budget && !keep.contains(mirror.getName()) && lastUsed(mirror) < recent) {
+                    Util.deleteRecursive(mirror);
+                    evicted.add(mirror.getName());
+                } else {
+                    used += size;
+                }
+            }
+            return evicted;
+        }
+
+        private static long lastUsed(File mirror) {
+            File marker = new File(mirror, LAST_USED);
+            return marker.exists() ? marker.lastModified() : mirror.lastModified();
+        }
+
+        private static long size(File file) {
+            File[] children = file.listFiles();
+            if (children == null)
+                return file.length();
+            long size = 0;
+            for (File child : children)
+                size += size(child);
+            return size;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(MirrorCache.class.getName());
+}
@@ -0,0 +1,160 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.model.Item;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link PollRecord}s of a job, one line each, in {@code git-tag-polls.log} in the job's root directory.
+ *
+ * Each job keeps its own journal, so a job that polls rarely keeps its history however often other jobs poll. A
+ * record is appended with a single write. Whether the file ends with a line cut short by a crash is only checked by the
+ * first append after a restart, or after an append failed. When the file grows beyond {@link #MAX_SIZE}, it is moved to
+ * {@code git-tag-polls.log.1}, replacing the previous one. The journal is read to find the last polling of the job
+ * after a restart, and the polling that triggered a build when its polling log is shown.
+ */
+public class PollJournal {
+
+    private static final String FILE_NAME = "git-tag-polls.log";
+
+    private static final ConcurrentMap<String, State> STATES = new ConcurrentHashMap<>();
+
+    private final File file;
+
+    /**
+     * Shared by all instances for the same file, and locked while it is accessed.
+     */
+    private final State lock;
+
+    PollJournal(File file) {
+        this.file = file;
+        State lock = STATES.get(file.getPath());
+        if (lock == null) {
+            State existing = STATES.putIfAbsent(file.getPath(), lock = new State());
+            if (existing != null)
+                lock = existing;
+        }
+        this.lock = lock;
+    }
+
+    /**
+     * The journal of the given job.
+     */
+    public static PollJournal forJob(Item job) {
+        return new PollJournal(new File(job.getRootDir(), FILE_NAME));
+    }
+
+    public void append(PollRecord record) throws IOException {
+        StringWriter line = new StringWriter();
+        record.writeTo(line);
+        line.write('\n');
+        byte[] bytes = line.toString().getBytes(PollLog.CHARSET);
+
+        synchronized (lock) {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Could not create directory " + dir);
+            if (file.length() > MAX_SIZE) {
+                Files.move(file.toPath(), getRotatedFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+                lock.clean = true;
+            }
+            boolean torn = !lock.clean && endsWithIncompleteLine(file);
+            lock.clean = false;
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                if (torn)
+                    out.write('\n'); // end a line cut short by a crash, rather than continue it
+                out.write(bytes);
+            }
+            lock.clean = true;
+        }
+    }
+
+    private static boolean endsWithIncompleteLine(File file) throws IOException {
+        if (!file.exists())
+            return false;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length == 0)
+                return false;
+            in.seek(length - 1);
+            return in.read() != '\n';
+        }
+    }
+
+    /**
+     * The last recorded polling, null if there is none.
+     */
+    public PollRecord findLast() throws IOException {
+        synchronized (lock) {
+            String last = findLast(file);
+            if (last == null)
+                last = findLast(getRotatedFile());
+            return last == null ? null : PollRecord.parse(last);
+        }
+    }
+
+    /**
+     * The polling with the given id, null if it is not recorded or no longer kept.
+     */
+    public PollRecord find(long pollId) throws IOException {
+        synchronized (lock) {
+            String line = find(file, pollId);
+            if (line == null)
+                line = find(getRotatedFile(), pollId);
+            return line == null ? null : PollRecord.parse(line);
+        }
+    }
+
+    private static String findLast(File file) throws IOException {
+        if (!file.exists())
+            return null;
+        String last = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), PollLog.CHARSET))) {
+            String line;
+            while ((line = in.readLine()) != null)
+                if (PollRecord.parse(line) != null)
+                    last = line;
+        }
+        return last;
+    }
+
+    private static String find(File file, long pollId) throws IOException {
+        if (!file.exists())
+            return null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), PollLog.CHARSET))) {
+            String line;
+            while ((line = in.readLine()) != null)
+                if (PollRecord.pollIdOf(line) == pollId)
+                    return line;
+        }
+        return null;
+    }
+
+    private File getRotatedFile() {
+        return new File(file.getPath() + ".1");
+    }
+
+    private static final class State {
+        /**
+         * Whether the file is known to end with a complete line, as after an append of this instance of Jenkins.
+         */
+        boolean clean;
+    }
+
+    /**
+     * Size in bytes beyond which the journal of a job is rotated.
+     */
+    public static long MAX_SIZE = Long.getLong(GitTagTrigger.class.getName() + ".pollJournalSize", 256 * 1024);
+}
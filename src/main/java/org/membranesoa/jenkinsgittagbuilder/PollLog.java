@@ -0,0 +1,127 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.model.TaskListener;
+import hudson.util.ByteBuffer;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the {@link PollRecord} of a running polling. The output printed to its listener is kept in memory, where
+ * it can be watched while the polling runs, and becomes the messages of the record.
+ *
+ * The polling log of the current thread is available through {@link #current()}, so code deep inside a polling can
+ * add structured fields without passing the log around.
+ */
+public final class PollLog {
+
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<PollLog> CURRENT = new ThreadLocal<>();
+
+    private final String job;
+
+    private final long pollId;
+
+    private final ByteBuffer messages = new ByteBuffer();
+
+    private final StreamTaskListener listener = new StreamTaskListener(messages, CHARSET);
+
+    private String remote;
+
+    private int refs;
+
+    private int deleted;
+
+    private long listMillis;
+
+    private PollLog(String job, long pollId) {
+        this.job = job;
+        this.pollId = pollId;
+    }
+
+    /**
+     * Starts the log of a polling on the current thread.
+     */
+    public static PollLog start(String job, long pollId) {
+        PollLog log = new PollLog(job, pollId);
+        CURRENT.set(log);
+        return log;
+    }
+
+    /**
+     * The log of the polling running on the current thread, null if there is none.
+     */
+    public static PollLog current() {
+        return CURRENT.get();
+    }
+
+    public TaskListener getListener() {
+        return listener;
+    }
+
+    public long getPollId() {
+        return pollId;
+    }
+
+    /**
+     * Records the result of listing the tags of a remote.
+     */
+    public void listed(String remote, int refs, int deleted, long millis) {
+        this.remote = remote;
+        this.refs = refs;
+        this.deleted = deleted;
+        this.listMillis = millis;
+    }
+
+    /**
+     * Writes the log so far in the same form as {@link PollRecord#render()}, which it is a prefix of.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(PollRecord.header(pollId).getBytes(CHARSET));
+        messages.writeTo(out);
+    }
+
+    /**
+     * Ends the polling on the current thread.
+     *
+     * @param newTags the new tags that passed the tag filter
+     */
+    public PollRecord finish(PollRecord.Outcome outcome, Iterable<String> newTags) {
+        if (CURRENT.get() == this)
+            CURRENT.remove();
+        listener.getLogger().flush();
+
+        // the output of a polling that went well is rarely looked at, but it is written for every polling
+        int max = outcome == PollRecord.Outcome.OK ? MAX_OK_MESSAGES : MAX_MESSAGES;
+        ByteArrayOutputStream text = new ByteArrayOutputStream((int) Math.min(messages.length(), max));
+        try {
+            messages.writeTo(text);
+        } catch (IOException e) {
+            throw new AssertionError(e); // in memory
+        }
+        String output = new String(text.toByteArray(), CHARSET);
+        if (output.length() > max)
+            output = output.substring(0, max) + "\n(truncated)\n";
+
+        List<String> tags = new ArrayList<>();
+        for (String tag : newTags)
+            tags.add(tag);
+        return new PollRecord(job, pollId, System.currentTimeMillis(), remote, refs, deleted, listMillis, outcome, tags, output);
+    }
+
+    /**
+     * Most characters of output kept with the record of a polling that failed or timed out.
+     */
+    public static int MAX_MESSAGES = Integer.getInteger(GitTagTrigger.class.getName() + ".pollLogSize", 64 * 1024);
+
+    /**
+     * Most characters of output kept with the record of a successful polling.
+     */
+    public static int MAX_OK_MESSAGES = Integer.getInteger(GitTagTrigger.class.getName() + ".pollLogSuccessSize", 4 * 1024);
+}
@@ -0,0 +1,46 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.util.TimeUnit2;
+
+/**
+ * Why a polling was requested, which decides how soon it runs when the {@link PollingQueue} is busy.
+ *
+ * Each class has a handicap: a polling is ranked as if it had been requested that much later. A cron polling that has
+ * waited longer than the handicap of its class thus outranks a newly arrived webhook polling, so periodic polling is
+ * delayed but never starved.
+ */
+public enum PollPriority {
+
+    /**
+     * Explicitly requested by a user.
+     */
+    MANUAL,
+
+    /**
+     * Requested by a post-commit hook of the repository.
+     */
+    WEBHOOK,
+
+    /**
+     * Periodic polling according to the schedule of the trigger.
+     */
+    CRON;
+
+    /**
+     * Milliseconds a polling of this class is ranked behind a manual polling requested at the same time.
+     */
+    public long getHandicap() {
+        switch (this) {
+            case WEBHOOK:
+                return WEBHOOK_HANDICAP;
+            case CRON:
+                return CRON_HANDICAP;
+            default:
+                return 0;
+        }
+    }
+
+    public static long WEBHOOK_HANDICAP = Long.getLong(GitTagTrigger.class.getName() + ".webhookPollHandicap", TimeUnit2.SECONDS.toMillis(10));
+
+    public static long CRON_HANDICAP = Long.getLong(GitTagTrigger.class.getName() + ".cronPollHandicap", TimeUnit2.MINUTES.toMillis(5));
+}
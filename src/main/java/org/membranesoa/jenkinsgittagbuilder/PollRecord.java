@@ -0,0 +1,248 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.Util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * What one polling did: when it ran, which remote it listed, how many tags it saw, which tags were new, how long it
+ * took, and the messages printed along the way. The human readable polling log is rendered from it when shown.
+ *
+ * Records are stored one per line in the {@link PollJournal} of the job, as tab separated fields. The
+ * {@link GitTagTrigger.GitTagTriggerCause}s of the builds a polling triggered refer to its record by its poll id.
+ */
+public final class PollRecord {
+
+    private static final String VERSION = "1";
+
+    public enum Outcome { OK, TIMED_OUT, FAILED }
+
+    private final String job;
+    private final long pollId;
+    private final long finishedAt;
+    private final String remote;
+    private final int refs;
+    private final int deleted;
+    private final long listMillis;
+    private final Outcome outcome;
+    private final List<String> newTags;
+    private final String messages;
+
+    PollRecord(String job, long pollId, long finishedAt, String remote, int refs, int deleted, long listMillis,
+               Outcome outcome, List<String> newTags, String messages) {
+        this.job = job;
+        this.pollId = pollId;
+        this.finishedAt = finishedAt;
+        this.remote = remote;
+        this.refs = refs;
+        this.deleted = deleted;
+        this.listMillis = listMillis;
+        this.outcome = outcome;
+        this.newTags = newTags;
+        this.messages = messages;
+    }
+
+    public String getJob() {
+        return job;
+    }
+
+    /**
+     * When the polling started; identifies the polling in the tag history.
+     */
+    public long getPollId() {
+        return pollId;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * The remote whose tags were listed, null if listing did not get that far.
+     */
+    public String getRemote() {
+        return remote;
+    }
+
+    /**
+     * Number of tags listed.
+     */
+    public int getRefs() {
+        return refs;
+    }
+
+    /**
+     * Number of tags found deleted from the remote.
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * How long listing and recording the tags took.
+     */
+    public long getListMillis() {
+        return listMillis;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * The new tags that passed the tag filter.
+     */
+    public List<String> getNewTags() {
+        return Collections.unmodifiableList(newTags);
+    }
+
+    /**
+     * Free-form output of the polling, such as the git commands run and their errors.
+     */
+    public String getMessages() {
+        return messages;
+    }
+
+    /**
+     * The first line of the human readable log of a polling.
+     */
+    static String header(long pollId) {
+        return "Started on " + DateFormat.getDateTimeInstance().format(new Date(pollId)) + "\n";
+    }
+
+    /**
+     * The human readable polling log.
+     */
+    public String render() {
+        StringBuilder log = new StringBuilder(header(pollId)).append(messages);
+        if (remote != null) {
+            log.append("Listed ").append(refs).append(" tags of ").append(remote)
+                    .append(" in ").append(Util.getTimeSpanString(listMillis));
+            if (deleted > 0)
+                log.append(", ").append(deleted).append(" deleted");
+            log.append('\n');
+        }
+        if (outcome == Outcome.TIMED_OUT)
+            log.append("Polling timed out.\n");
+        else if (outcome == Outcome.FAILED)
+            log.append("Polling failed.\n");
+        log.append("Done. Took ").append(Util.getTimeSpanString(finishedAt - pollId)).append('\n');
+        if (newTags.isEmpty())
+            log.append("No changes\n");
+        else
+            log.append("Changes found: ").append(Util.join(newTags, ", ")).append('\n');
+        return log.toString();
+    }
+
+    /**
+     * Writes this record as one line, without the line break.
+     */
+    void writeTo(Writer out) throws IOException {
+        out.write(VERSION);
+        writeField(out, job);
+        writeField(out, Long.toString(pollId));
+        writeField(out, Long.toString(finishedAt));
+        writeField(out, remote == null ? "" : remote);
+        writeField(out, Integer.toString(refs));
+        writeField(out, Integer.toString(deleted));
+        writeField(out, Long.toString(listMillis));
+        writeField(out, outcome.name());
+        out.write('\t');
+        for (int i = 0; i < newTags.size(); i++) {
+            if (i > 0)
+                out.write("\\n"); // escaped, like a line break within a field
+            escape(out, newTags.get(i));
+        }
+        writeField(out, messages);
+    }
+
+    /**
+     * The poll id of a line written by {@link #writeTo}, without parsing all of it.
+     *
+     * @return -1 if the line is not a record of this version
+     */
+    static long pollIdOf(String line) {
+        if (!line.startsWith(VERSION + "\t"))
+            return -1;
+        int start = line.indexOf('\t', VERSION.length() + 1) + 1;
+        int end = start == 0 ? -1 : line.indexOf('\t', start);
+        if (end < 0)
+            return -1;
+        try {
+            return Long.parseLong(line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a line written by {@link #writeTo}.
+     *
+     * @return null if the line is not a record of this version
+     */
+    static PollRecord parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 11 || !fields[0].equals(VERSION))
+            return null;
+        try {
+            List<String> tags = new ArrayList<>();
+            if (!fields[9].isEmpty())
+                Collections.addAll(tags, unescape(fields[9]).split("\n"));
+            return new PollRecord(unescape(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                    fields[4].isEmpty() ? null : unescape(fields[4]), Integer.parseInt(fields[5]),
+                    Integer.parseInt(fields[6]), Long.parseLong(fields[7]), Outcome.valueOf(fields[8]), tags,
+                    unescape(fields[10]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeField(Writer out, String value) throws IOException {
+        out.write('\t');
+        escape(out, value);
+    }
+
+    private static void escape(Writer out, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0)
+            return value;
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                result.append(c);
+                continue;
+            }
+            c = value.charAt(++i);
+            result.append(c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,255 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import hudson.scheduler.CronTab;
+import hudson.scheduler.Hash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides when each {@link GitTagTrigger} polls periodically, instead of Jenkins checking the cron spec of every
+ * trigger every minute.
+ *
+ * Triggers are kept in a timing wheel of {@link #SLOTS} one-minute slots, each a linked list of the triggers due in
+ * that minute or a multiple of {@link #SLOTS} minutes later. Once a minute the {@link Ticker} walks the slots of the
+ * minutes that passed and queues the pollings of the triggers that are due, which are then moved to the slot of their
+ * next due minute. Triggers that are not due cost a comparison when their slot comes around, and no allocation.
+ *
+ * A trigger whose last periodic polling has not completed yet is not queued again; its next due minute is skipped,
+ * like a cron polling that gets merged into the one still waiting.
+ *
+ * Jenkins does not stop the triggers of deleted jobs, nor those of jobs replaced by reloading the configuration from
+ * disk. A due trigger that is no longer the trigger of its job is therefore dropped instead of polled.
+ */
+public class PollScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(PollScheduler.class.getName());
+
+    private final Entry[] slots = new Entry[SLOTS];
+
+    /**
+     * The last minute whose slot was walked.
+     */
+    private long lastTick = minuteOf(System.currentTimeMillis());
+
+    /**
+     * Reused by {@link #tick} to collect the due entries.
+     */
+    private final List<Entry> due = new ArrayList<>();
+
+    /**
+     * Reused by {@link #tick} to collect the entries to poll; guarded by {@link #tickLock}.
+     */
+    private final List<Entry> toRun = new ArrayList<>();
+
+    /**
+     * Held while a tick queues its pollings, which happens outside the lock on the wheel.
+     */
+    private final Object tickLock = new Object();
+
+    /**
+     * Starts scheduling the periodic pollings of a trigger, replacing its earlier schedule.
+     *
+     * @param firstDue when to poll first, 0 for the next time its cron spec says
+     */
+    public void register(GitTagTrigger trigger, String spec, Hash hash, long firstDue) {
+        List<CronTab> tabs = new ArrayList<>();
+        for (String line : spec.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            try {
+                tabs.add(new CronTab(line, hash));
+            } catch (ANTLRException e) {
+                LOGGER.log(Level.WARNING, "Ignoring the invalid polling schedule " + line, e);
+            }
+        }
+        Entry entry = new Entry(trigger, tabs.toArray(new CronTab[tabs.size()]));
+        long now = System.currentTimeMillis();
+        long at = firstDue > 0 ? firstDue : entry.nextDue(now);
+
+        synchronized (this) {
+            unregister(trigger);
+            if (at == Long.MAX_VALUE)
+                return; // never due
+            trigger.scheduled = entry;
+            entry.dueMinute = Math.max(minuteOf(at), lastTick + 1);
+            link(entry);
+        }
+    }
+
+    /**
+     * Stops scheduling the periodic pollings of a trigger.
+     */
+    public synchronized void unregister(GitTagTrigger trigger) {
+        Entry entry = trigger.scheduled;
+        if (entry == null)
+            return;
+        unlink(entry);
+        trigger.scheduled = null;
+    }
+
+    /**
+     * Called when a periodic polling of the trigger completed, so that its next due minute queues a polling again.
+     * Pollings requested otherwise do not count, unless a periodic request was merged into them.
+     */
+    public void completed(GitTagTrigger trigger) {
+        Entry entry = trigger.scheduled;
+        if (entry != null)
+            entry.busySince = 0;
+    }
+
+    /**
+     * Queues the pollings that are due by the given time.
+     *
+     * @param busyTimeout how long a polling may take to complete before the trigger is polled again anyway
+     * @return the number of pollings queued
+     */
+    public int tick(long now, long busyTimeout) {
+        long minute = minuteOf(now);
+        synchronized (tickLock) {
+            synchronized (this) {
+                if (minute <= lastTick)
+                    return 0;
+                // a full turn of the wheel sees every slot; later turns would not find anything more
+                long from = Math.max(lastTick + 1, minute - slots.length + 1);
+                for (long m = from; m <= minute; m++) {
+                    Entry e = slots[slot(m)];
+                    while (e != null) {
+                        Entry next = e.next;
+                        if (e.dueMinute <= minute)
+                            due.add(e);
+                        e = next;
+                    }
+                }
+                lastTick = minute;
+
+                for (Entry e : due) {
+                    unlink(e);
+                    if (!e.trigger.isCurrent()) {
+                        e.trigger.scheduled = null;
+                        continue;
+                    }
+                    if (e.busySince == 0 || now - e.busySince > busyTimeout) {
+                        e.busySince = now;
+                        toRun.add(e);
+                    }
+                    long at = e.nextDue(now);
+                    if (at == Long.MAX_VALUE) {
+                        e.trigger.scheduled = null;
+                        continue;
+                    }
+                    e.dueMinute = Math.max(minuteOf(at), minute + 1);
+                    link(e);
+                }
+                due.clear();
+            }
+
+            int queued = toRun.size();
+            for (Entry e : toRun) {
+                try {
+                    e.trigger.run(null, PollPriority.CRON);
+                } catch (RuntimeException x) {
+                    e.busySince = 0;
+                    LOGGER.log(Level.WARNING, "Failed to queue a periodic polling", x);
+                }
+            }
+            toRun.clear();
+            return queued;
+        }
+    }
+
+    private void link(Entry e) {
+        int slot = slot(e.dueMinute);
+        e.prev = null;
+        e.next = slots[slot];
+        if (e.next != null)
+            e.next.prev = e;
+        slots[slot] = e;
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null)
+            e.prev.next = e.next;
+        else if (slots[slot(e.dueMinute)] == e)
+            slots[slot(e.dueMinute)] = e.next;
+        if (e.next != null)
+            e.next.prev = e.prev;
+        e.prev = e.next = null;
+    }
+
+    private int slot(long minute) {
+        return (int) (minute % slots.length);
+    }
+
+    private static long minuteOf(long millis) {
+        return millis / TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /**
+     * The schedule of one trigger, linked into the slot of its due minute.
+     */
+    static final class Entry {
+        private final GitTagTrigger trigger;
+        private final CronTab[] tabs;
+        private long dueMinute;
+        private Entry prev;
+        private Entry next;
+
+        /**
+         * When the last polling queued by the scheduler was queued, 0 once it completed.
+         */
+        private volatile long busySince;
+
+        Entry(GitTagTrigger trigger, CronTab[] tabs) {
+            this.trigger = trigger;
+            this.tabs = tabs;
+        }
+
+        /**
+         * The first time after the given one that the cron spec matches, {@link Long#MAX_VALUE} if it never does.
+         */
+        long nextDue(long after) {
+            long from = (minuteOf(after) + 1) * TimeUnit.MINUTES.toMillis(1);
+            long next = Long.MAX_VALUE;
+            for (CronTab tab : tabs) {
+                try {
+                    next = Math.min(next, tab.ceil(from).getTimeInMillis());
+                } catch (RuntimeException e) {
+                    // a spec that matches no date, such as the 30th of February
+                }
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Walks the timing wheel once a minute.
+     */
+    @Extension
+    public static final class Ticker extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            GitTagTrigger.DescriptorImpl descriptor = GitTagTrigger.DescriptorImpl.get();
+            if (descriptor != null)
+                descriptor.scheduler.tick(System.currentTimeMillis(), descriptor.getStarvationThreshold());
+        }
+    }
+
+    /**
+     * Number of one-minute slots of the timing wheel. Triggers polling less often than this are passed over once per
+     * turn of the wheel until they are due.
+     */
+    public static int SLOTS = Math.max(1, Integer.getInteger(GitTagTrigger.class.getName() + ".schedulerSlots", 64));
+}
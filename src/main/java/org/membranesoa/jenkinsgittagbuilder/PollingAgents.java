@@ -0,0 +1,198 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Lists the tags of remotes on the agents carrying the configured polling label, rather than on the controller.
+ *
+ * Each remote is polled by the same agent as long as the set of online polling agents does not change (rendezvous
+ * hashing over the agent names), so that agent can remember the tags it returned last time. The controller then only
+ * receives the tags that were added, moved or deleted since.
+ */
+public class PollingAgents {
+
+    /**
+     * The tags last received for each agent and remote, as a base to apply differences to.
+     */
+    private static final ConcurrentMap<String, Snapshot> RECEIVED = new ConcurrentHashMap<>();
+
+    /**
+     * On an agent: the tags last sent for each remote.
+     */
+    private static final ConcurrentMap<String, Snapshot> SENT = new ConcurrentHashMap<>();
+
+    private PollingAgents() {
+    }
+
+    /**
+     * The online agent with the polling label that is responsible for the given remote, or null if no polling label is
+     * configured or no such agent is online.
+     */
+    public static Node select(String remote) {
+        String labelString = GitTagTrigger.DescriptorImpl.get().getPollingLabel();
+        if (labelString == null)
+            return null;
+        Label label = Jenkins.getActiveInstance().getLabel(labelString);
+        if (label == null)
+            return null;
+
+        Node selected = null;
+        long best = Long.MIN_VALUE;
+        for (Node node : label.getNodes()) {
+            Computer computer = node.toComputer();
+            if (computer == null || computer.isOffline() || computer.getChannel() == null)
+                continue;
+            long weight = weight(node.getNodeName(), remote);
+            if (selected == null || weight > best) {
+                selected = node;
+                best = weight;
+            }
+        }
+        return selected;
+    }
+
+    private static long weight(String node, String remote) {
+        // 64 bit mix of both hashes, so that removing an agent only moves the remotes it was responsible for
+        long h = (long) node.hashCode() * 0x9E3779B97F4A7C15L + remote.hashCode();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Lists the tags of a remote on the given agent.
+     */
+    static GitTagHelper.RemoteLister lister(final Node agent, final String gitExe, final EnvVars env,
+                                            final StandardUsernameCredentials credentials, final TaskListener listener) {
+        return new GitTagHelper.RemoteLister() {
+            @Override
+            public Map<String, ObjectId> call(String remote) throws GitException, InterruptedException {
+                FilePath root = agent.getRootPath();
+                if (root == null)
+                    throw new GitException(agent.getDisplayName() + " is offline");
+
+                String key = agent.getNodeName() + " " + remote;
+                Snapshot base = RECEIVED.get(key);
+                Diff diff;
+                try {
+                    diff = root.act(new ListTags(remote, gitExe, env,
+                            credentials == null ? null : CredentialsProvider.snapshot(StandardUsernameCredentials.class, credentials),
+                            listener, base == null ? 0 : base.generation));
+                } catch (IOException e) {
+                    throw new GitException("Failed to list the tags of " + remote + " on " + agent.getDisplayName(), e);
+                }
+
+                Map<String, ObjectId> tags = new HashMap<>();
+                if (!diff.full && base != null)
+                    tags.putAll(base.tags);
+                tags.keySet().removeAll(diff.removed);
+                tags.putAll(diff.changed);
+                RECEIVED.put(key, new Snapshot(diff.generation, tags));
+                return tags;
+            }
+        };
+    }
+
+    /**
+     * The tags of a remote as of some listing, identified by a random generation number.
+     */
+    private static final class Snapshot {
+        final long generation;
+        final Map<String, ObjectId> tags;
+
+        Snapshot(long generation, Map<String, ObjectId> tags) {
+            this.generation = generation;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Tags that changed since the listing the controller knows, or all tags if {@link #full}.
+     */
+    private static final class Diff implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long generation;
+        final boolean full;
+        final Map<String, ObjectId> changed;
+        final Set<String> removed;
+
+        Diff(long generation, boolean full, Map<String, ObjectId> changed, Set<String> removed) {
+            this.generation = generation;
+            this.full = full;
+            this.changed = changed;
+            this.removed = removed;
+        }
+    }
+
+    private static final class ListTags extends MasterToSlaveFileCallable<Diff> {
+        private static final long serialVersionUID = 1L;
+
+        private final String remote;
+        private final String gitExe;
+        private final EnvVars env;
+        private final StandardUsernameCredentials credentials;
+        private final TaskListener listener;
+        private final long baseGeneration;
+
+        ListTags(String remote, String gitExe, EnvVars env, StandardUsernameCredentials credentials, TaskListener listener, long baseGeneration) {
+            this.remote = remote;
+            this.gitExe = gitExe;
+            this.env = env;
+            this.credentials = credentials;
+            this.listener = listener;
+            this.baseGeneration = baseGeneration;
+        }
+
+        @Override
+        public Diff invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            GitClient git = Git.with(listener, env).in(dir).using(gitExe).getClient();
+            if (credentials != null)
+                git.addDefaultCredentials(credentials);
+            // the references as listed, so that the controller also learns the tag objects of annotated tags
+            Map<String, ObjectId> tags = git.getRemoteReferences(remote, null, false, true);
+
+            Snapshot sent = SENT.get(remote);
+            Snapshot current = new Snapshot(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE) + 1, tags);
+            SENT.put(remote, current);
+            if (sent == null || sent.generation != baseGeneration)
+                return new Diff(current.generation, true, new HashMap<>(tags), Collections.<String>emptySet());
+
+            Map<String, ObjectId> changed = new HashMap<>();
+            for (Map.Entry<String, ObjectId> tag : tags.entrySet())
+                if (!tag.getValue().equals(sent.tags.get(tag.getKey())))
+                    changed.put(tag.getKey(), tag.getValue());
+            Set<String> removed = new HashSet<>(sent.tags.keySet());
+            removed.removeAll(tags.keySet());
+            return new Diff(current.generation, false, changed, removed);
+        }
+    }
+}
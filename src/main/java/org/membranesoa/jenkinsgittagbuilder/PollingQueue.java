@@ -0,0 +1,671 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.util.Timer;
+
+/**
+ * Executes pollings by {@link PollPriority}, with the same exclusion semantics as
+ * {@link hudson.util.SequentialExecutionQueue}: tasks are identified by {@link Object#equals(Object)}, a task that is
+ * already pending is not queued twice, and a task is never run concurrently with an equal one.
+ *
+ * Instead of handing everything to the executor at once, at most {@code maxConcurrency} tasks are passed on, and the
+ * next one is picked by rank whenever one of them completes. A pending task that gets requested again with a more
+ * urgent priority moves up.
+ *
+ * The number of pending and running tasks per host is kept up to date as tasks move through the queue, so that a
+ * {@link Snapshot} of the queue can be taken without looking at every task.
+ *
+ * With a rate limit set, each {@link Budgeted} task takes a token from the bucket of its host and budget when it
+ * starts. Buckets refill continuously at the limit and hold up to {@link #BURST_MINUTES} worth of tokens. Tasks whose
+ * bucket is empty are held back until it has a token again. The last quarter of a bucket is reserved for tasks whose
+ * repository got a new tag within {@link #RECENTLY_TAGGED}, so when the budget runs low, repositories that have not
+ * been tagged for a while wait first. The buckets are kept in {@link Budgets}, which several queues can share.
+ */
+public class PollingQueue {
+
+    /**
+     * In the order the tasks were queued, so the longest waiting ones come first.
+     */
+    private final Map<Runnable, Entry> pending = new LinkedHashMap<>();
+
+    /**
+     * Pending tasks that can run as soon as a slot is free, ordered by rank.
+     */
+    private final TreeSet<Entry> ready = new TreeSet<>();
+
+    /**
+     * Running tasks and when they were started, longest running first.
+     */
+    private final Map<Runnable, Long> inProgress = new LinkedHashMap<>();
+
+    private final Map<String, HostCount> hosts = new HashMap<>();
+
+    private final Budgets budgets;
+
+    /**
+     * Pending tasks held back until their bucket has a token again.
+     */
+    private final List<Entry> throttled = new ArrayList<>();
+
+    /**
+     * When a wake-up for the throttled tasks is scheduled, 0 if none is.
+     */
+    private long wakeUpAt;
+
+    private ExecutorService executors;
+
+    private int maxConcurrency;
+
+    private long sequence;
+
+    public PollingQueue(ExecutorService executors) {
+        this(executors, new Budgets());
+    }
+
+    /**
+     * @param budgets the token buckets, possibly shared with other queues
+     */
+    public PollingQueue(ExecutorService executors, Budgets budgets) {
+        this.executors = executors;
+        this.budgets = budgets;
+    }
+
+    public synchronized ExecutorService getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Starts using a new executor service, shutting down the old one.
+     *
+     * @param maxConcurrency max number of tasks executed at the same time, 0 for unbounded
+     */
+    public synchronized void setExecutors(ExecutorService svc, int maxConcurrency) {
+        ExecutorService old = this.executors;
+        this.executors = svc;
+        this.maxConcurrency = maxConcurrency;
+        old.shutdown();
+        dispatch(System.currentTimeMillis());
+    }
+
+    /**
+     * Limits how many {@link Budgeted} tasks are started per host and budget. If the buckets are shared, call
+     * {@link #releaseThrottled()} on the other queues.
+     *
+     * @param perHour tasks per hour, 0 for no limit
+     */
+    public void setRateLimit(int perHour) {
+        if (budgets.setRateLimit(perHour))
+            releaseThrottled();
+    }
+
+    /**
+     * Gives the tasks held back for lack of tokens another chance, e.g. after the rate limit changed.
+     */
+    public synchronized void releaseThrottled() {
+        for (Entry e : throttled)
+            e.throttled = false;
+        ready.addAll(throttled);
+        throttled.clear();
+        dispatch(System.currentTimeMillis());
+    }
+
+    public void execute(Runnable task, PollPriority priority) {
+        execute(task, priority, System.currentTimeMillis());
+    }
+
+    synchronized void execute(Runnable task, PollPriority priority, long now) {
+        long rank = now + priority.getHandicap();
+
+        Entry e = pending.get(task);
+        if (e == null) {
+            e = new Entry(task, now, rank, sequence++);
+            pending.put(task, e);
+            count(task).pending++;
+            if (!inProgress.containsKey(task))
+                ready.add(e);
+        } else {
+            if (e.task != task && e.task instanceof Mergeable)
+                ((Mergeable) e.task).merged(task, priority);
+            if (rank < e.rank) {
+                boolean wasReady = ready.remove(e);
+                e.rank = rank;
+                if (wasReady)
+                    ready.add(e);
+            }
+        }
+        dispatch(now);
+    }
+
+    /**
+     * Returns true if a task has been waiting for longer than the given number of milliseconds.
+     */
+    public synchronized boolean isStarving(long threshold) {
+        return getOldestPendingAge() > threshold;
+    }
+
+    /**
+     * How long the longest waiting task has been waiting, 0 if none is. Tasks held back by the rate limit are not
+     * counted, as they wait on purpose rather than for a free thread.
+     */
+    public long getOldestPendingAge() {
+        return getOldestPendingAge(System.currentTimeMillis());
+    }
+
+    synchronized long getOldestPendingAge(long now) {
+        // pending is in queueing order, so the first entry that is not throttled is the oldest
+        for (Entry e : pending.values()) {
+            if (!e.throttled)
+                return now - e.enqueuedAt;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the snapshot of the tasks that are currently executing.
+     */
+    public synchronized Set<Runnable> getInProgress() {
+        return new HashSet<>(inProgress.keySet());
+    }
+
+    /**
+     * Whether a task equal to the given one is currently executing.
+     */
+    public synchronized boolean isInProgress(Runnable task) {
+        return inProgress.containsKey(task);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void dispatch(long now) {
+        while (!ready.isEmpty() && (maxConcurrency <= 0 || inProgress.size() < maxConcurrency)) {
+            Entry e = ready.pollFirst();
+            if (!takeToken(e, now)) {
+                e.throttled = true;
+                throttled.add(e);
+                continue;
+            }
+            pending.remove(e.task);
+            inProgress.put(e.task, now);
+            HostCount count = count(e.task);
+            count.pending--;
+            count.running++;
+            executors.submit(new Runner(e.task));
+        }
+    }
+
+    /**
+     * Takes a token for a task that is about to start, if it needs one.
+     *
+     * @return false if the task has to wait for its bucket to refill
+     */
+    private boolean takeToken(Entry e, long now) {
+        if (!(e.task instanceof Budgeted))
+            return true;
+        long wait = budgets.take((Budgeted) e.task, now);
+        if (wait == 0)
+            return true;
+        scheduleWakeUp(now + wait);
+        return false;
+    }
+
+    /**
+     * Makes the throttled tasks ready again at the given time, unless that happens earlier anyway.
+     */
+    private void scheduleWakeUp(long at) {
+        if (wakeUpAt != 0 && wakeUpAt <= at)
+            return;
+        wakeUpAt = at;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                wakeUp();
+            }
+        }, Math.max(0, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void wakeUp() {
+        if (wakeUpAt > System.currentTimeMillis())
+            return; // an earlier wake-up, superseded by a later one
+        wakeUpAt = 0;
+        releaseThrottled();
+    }
+
+    private synchronized void completed(Runnable task) {
+        inProgress.remove(task);
+        HostCount count = count(task);
+        count.running--;
+        if (count.pending == 0 && count.running == 0)
+            hosts.remove(count.host);
+        Entry next = pending.get(task);
+        if (next != null && !next.throttled)
+            ready.add(next);
+        dispatch(System.currentTimeMillis());
+    }
+
+    private HostCount count(Runnable task) {
+        String host = task instanceof HostBound ? ((HostBound) task).getHost() : "";
+        HostCount count = hosts.get(host);
+        if (count == null)
+            hosts.put(host, count = new HostCount(host));
+        return count;
+    }
+
+    /**
+     * Takes a consistent snapshot of the queue.
+     *
+     * @param maxWaiting how many of the longest waiting tasks to include
+     */
+    public synchronized Snapshot snapshot(int maxWaiting) {
+        List<Task> waiting = new ArrayList<>();
+        for (Entry e : pending.values()) {
+            if (waiting.size() >= maxWaiting)
+                break;
+            waiting.add(new Task(e.task, e.enqueuedAt));
+        }
+        List<Task> running = new ArrayList<>(inProgress.size());
+        for (Map.Entry<Runnable, Long> e : inProgress.entrySet())
+            running.add(new Task(e.getKey(), e.getValue()));
+        Map<String, HostCount> perHost = new TreeMap<>();
+        for (HostCount count : hosts.values())
+            perHost.put(count.host, new HostCount(count));
+
+        long now = System.currentTimeMillis();
+        Map<String, Budget> perBudget = budgets.snapshot(now);
+        for (Entry e : throttled) {
+            Budgeted task = (Budgeted) e.task;
+            Budget budget = perBudget.get(Budgets.key(task));
+            if (budget != null)
+                budget.throttled++;
+        }
+        return new Snapshot(now, running, pending.size(), waiting, perHost, perBudget);
+    }
+
+    /**
+     * Takes snapshots of several queues sharing the same {@link Budgets} and combines them as if they were one queue.
+     * The queues are not locked all at once, so the result is only consistent per queue.
+     */
+    public static Snapshot snapshot(PollingQueue[] queues, int maxWaiting) {
+        if (queues.length == 1)
+            return queues[0].snapshot(maxWaiting);
+
+        List<Task> running = new ArrayList<>();
+        List<Task> waiting = new ArrayList<>();
+        int pendingCount = 0;
+        Map<String, HostCount> hosts = new TreeMap<>();
+        Map<String, Budget> budgets = new TreeMap<>();
+        long takenAt = 0;
+        for (PollingQueue queue : queues) {
+            Snapshot snapshot = queue.snapshot(maxWaiting);
+            takenAt = Math.max(takenAt, snapshot.takenAt);
+            running.addAll(snapshot.running);
+            waiting.addAll(snapshot.longestWaiting);
+            pendingCount += snapshot.pendingCount;
+            for (HostCount count : snapshot.hosts.values()) {
+                HostCount sum = hosts.get(count.host);
+                if (sum == null) {
+                    hosts.put(count.host, new HostCount(count));
+                } else {
+                    sum.pending += count.pending;
+                    sum.running += count.running;
+                }
+            }
+            for (Map.Entry<String, Budget> budget : snapshot.budgets.entrySet()) {
+                Budget sum = budgets.get(budget.getKey());
+                if (sum == null)
+                    budgets.put(budget.getKey(), budget.getValue());
+                else
+                    sum.throttled += budget.getValue().throttled;
+            }
+        }
+
+        Comparator<Task> longestFirst = new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                return Long.compare(a.since, b.since);
+            }
+        };
+        Collections.sort(running, longestFirst);
+        Collections.sort(waiting, longestFirst);
+        if (waiting.size() > maxWaiting)
+            waiting = new ArrayList<>(waiting.subList(0, maxWaiting));
+        return new Snapshot(takenAt, running, pendingCount, waiting, hosts, budgets);
+    }
+
+    /**
+     * Implemented by tasks that talk to a single host, so tasks can be counted per host.
+     */
+    public interface HostBound {
+        String getHost();
+    }
+
+    /**
+     * Implemented by tasks that use up a request of a rate limited budget toward their host.
+     */
+    public interface Budgeted extends HostBound {
+        /**
+         * Identifies the budget toward the host, such as the credentials used.
+         */
+        String getBudget();
+
+        /**
+         * When the repository the task polls last got a new tag, 0 if unknown.
+         */
+        long getLastTagged();
+    }
+
+    /**
+     * Implemented by tasks that need to know when a request for an equal task was merged into them while pending.
+     */
+    public interface Mergeable {
+        /**
+         * Called with the queue locked, so it should only take note of the request.
+         */
+        void merged(Runnable request, PollPriority priority);
+    }
+
+    /**
+     * The state of the queue at one point in time.
+     */
+    public static final class Snapshot {
+        private final long takenAt;
+        private final List<Task> running;
+        private final int pendingCount;
+        private final List<Task> longestWaiting;
+        private final Map<String, HostCount> hosts;
+        private final Map<String, Budget> budgets;
+
+        Snapshot(long takenAt, List<Task> running, int pendingCount, List<Task> longestWaiting, Map<String, HostCount> hosts, Map<String, Budget> budgets) {
+            this.takenAt = takenAt;
+            this.running = running;
+            this.pendingCount = pendingCount;
+            this.longestWaiting = longestWaiting;
+            this.hosts = hosts;
+            this.budgets = budgets;
+        }
+
+        public long getTakenAt() {
+            return takenAt;
+        }
+
+        /**
+         * Running tasks, longest running first.
+         */
+        public List<Task> getRunning() {
+            return Collections.unmodifiableList(running);
+        }
+
+        public int getRunningCount() {
+            return running.size();
+        }
+
+        public int getPendingCount() {
+            return pendingCount;
+        }
+
+        /**
+         * The longest waiting tasks, longest waiting first.
+         */
+        public List<Task> getLongestWaiting() {
+            return Collections.unmodifiableList(longestWaiting);
+        }
+
+        /**
+         * Pending and running tasks per host, by host name. Tasks that are not {@link HostBound} count for host "".
+         */
+        public Map<String, HostCount> getHosts() {
+            return Collections.unmodifiableMap(hosts);
+        }
+
+        /**
+         * The rate limited budgets in use, by host and budget; empty if no rate limit is set.
+         */
+        public Map<String, Budget> getBudgets() {
+            return Collections.unmodifiableMap(budgets);
+        }
+    }
+
+    /**
+     * A task and when it was queued or started.
+     */
+    public static final class Task {
+        private final Runnable task;
+        private final long since;
+
+        Task(Runnable task, long since) {
+            this.task = task;
+            this.since = since;
+        }
+
+        public Runnable getTask() {
+            return task;
+        }
+
+        public long getSince() {
+            return since;
+        }
+    }
+
+    /**
+     * Pending and running tasks of one host.
+     */
+    public static final class HostCount {
+        private final String host;
+        private int pending;
+        private int running;
+
+        HostCount(String host) {
+            this.host = host;
+        }
+
+        HostCount(HostCount that) {
+            this.host = that.host;
+            this.pending = that.pending;
+            this.running = that.running;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPending() {
+            return pending;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+    }
+
+    /**
+     * The state of the token bucket of a host and budget.
+     */
+    public static final class Budget {
+        private final String host;
+        private final String budget;
+        private final int tokens;
+        private final int capacity;
+        private int throttled;
+
+        Budget(Bucket bucket) {
+            this.host = bucket.host;
+            this.budget = bucket.budget;
+            this.tokens = (int) bucket.tokens;
+            this.capacity = (int) bucket.capacity;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getBudget() {
+            return budget;
+        }
+
+        public int getTokens() {
+            return tokens;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * Percentage of the bucket that is used up.
+         */
+        public int getUtilization() {
+            return 100 - 100 * tokens / capacity;
+        }
+
+        /**
+         * Number of tasks waiting for a token.
+         */
+        public int getThrottled() {
+            return throttled;
+        }
+    }
+
+    /**
+     * The token buckets of all hosts and budgets, with the rate they refill at.
+     */
+    public static final class Budgets {
+        private final Map<String, Bucket> buckets = new HashMap<>();
+
+        /**
+         * Tokens added per millisecond; 0 if no rate limit is set.
+         */
+        private double refillRate;
+
+        /**
+         * @return whether the rate limit changed
+         */
+        synchronized boolean setRateLimit(int perHour) {
+            double rate = Math.max(0, perHour) / (double) TimeUnit.HOURS.toMillis(1);
+            if (rate == refillRate)
+                return false;
+            refillRate = rate;
+            buckets.clear();
+            return true;
+        }
+
+        /**
+         * Takes a token for a task.
+         *
+         * @return 0 if the task got its token, otherwise how many milliseconds until it may get one
+         */
+        synchronized long take(Budgeted task, long now) {
+            if (refillRate <= 0)
+                return 0;
+            String key = key(task);
+            Bucket bucket = buckets.get(key);
+            if (bucket == null)
+                buckets.put(key, bucket = new Bucket(task.getHost(), task.getBudget(), Math.max(1, refillRate * TimeUnit.MINUTES.toMillis(BURST_MINUTES)), now));
+            bucket.refill(refillRate, now);
+
+            double needed = now - task.getLastTagged() < RECENTLY_TAGGED ? 1 : 1 + Math.floor(bucket.capacity / 4);
+            if (bucket.tokens >= needed) {
+                bucket.tokens--;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((needed - bucket.tokens) / refillRate));
+        }
+
+        synchronized Map<String, Budget> snapshot(long now) {
+            Map<String, Budget> result = new TreeMap<>();
+            for (Map.Entry<String, Bucket> bucket : buckets.entrySet()) {
+                bucket.getValue().refill(refillRate, now);
+                result.put(bucket.getKey(), new Budget(bucket.getValue()));
+            }
+            return result;
+        }
+
+        static String key(Budgeted task) {
+            return task.getHost() + " " + task.getBudget();
+        }
+    }
+
+    private static final class Bucket {
+        final String host;
+        final String budget;
+        final double capacity;
+        double tokens;
+        long refilledAt;
+
+        Bucket(String host, String budget, double capacity, long now) {
+            this.host = host;
+            this.budget = budget;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        void refill(double rate, long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * rate);
+                refilledAt = now;
+            }
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final Runnable task;
+        final long enqueuedAt;
+        final long sequence;
+        long rank;
+        boolean throttled;
+
+        Entry(Runnable task, long enqueuedAt, long rank, long sequence) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry that) {
+            if (rank != that.rank)
+                return rank < that.rank ? -1 : 1;
+            return sequence < that.sequence ? -1 : sequence == that.sequence ? 0 : 1;
+        }
+    }
+
+    private final class Runner implements Runnable {
+        private final Runnable task;
+
+        Runner(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                completed(task);
+            }
+        }
+    }
+
+    /**
+     * How many minutes worth of tokens a bucket holds, so that short bursts are not throttled.
+     */
+    public static int BURST_MINUTES = Integer.getInteger(GitTagTrigger.class.getName() + ".rateLimitBurstMinutes", 5);
+
+    /**
+     * Repositories tagged within this many milliseconds may use the reserve of their bucket.
+     */
+    public static long RECENTLY_TAGGED = Long.getLong(GitTagTrigger.class.getName() + ".recentlyTagged", TimeUnit.DAYS.toMillis(7));
+}
@@ -0,0 +1,135 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.GitSCMExtensionDescriptor;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.CloneCommand;
+import org.jenkinsci.plugins.gitclient.FetchCommand;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lets builds triggered by a new tag fetch only that tag, with a depth of one, and build the commit the tag pointed to
+ * when it was polled. Builds started otherwise check out as configured.
+ */
+public class ShallowTagCheckout extends GitSCMExtension {
+
+    private final String reference;
+
+    @DataBoundConstructor
+    public ShallowTagCheckout(String reference) {
+        this.reference = Util.fixEmptyAndTrim(reference);
+    }
+
+    /**
+     * Path of a repository on the node to borrow objects from, if any.
+     */
+    public String getReference() {
+        return reference;
+    }
+
+    @Override
+    public void decorateCloneCommand(GitSCM scm, Run<?, ?> build, GitClient git, TaskListener listener, CloneCommand cmd) throws IOException, InterruptedException, GitException {
+        TagCheckoutAction action = build.getAction(TagCheckoutAction.class);
+        if (action == null)
+            return;
+
+        listener.getLogger().println("Cloning only tag " + action.getTag() + " with depth 1");
+        cmd.shallow(true).depth(1).tags(false).refspecs(Collections.singletonList(refSpec(action)));
+        if (reference != null) {
+            if (new FilePath(git.getWorkTree().getChannel(), reference).exists())
+                cmd.reference(reference);
+            else
+                listener.getLogger().println("Reference repository " + reference + " does not exist, cloning without it");
+        } else if (MirrorCache.isEnabled()) {
+            List<RemoteConfig> repos = scm.getParamExpandedRepos(build, listener);
+            String mirror = repos.size() == 1 ? updateMirror(scm, build, repos.get(0).getURIs().get(0), listener) : null;
+            if (mirror != null)
+                cmd.reference(mirror);
+        }
+    }
+
+    @Override
+    public void decorateFetchCommand(GitSCM scm, GitClient git, TaskListener listener, FetchCommand cmd) throws IOException, InterruptedException, GitException {
+        // not passed in by GitSCM, but fetching happens on the executor of the build
+        Run<?, ?> build = currentBuild();
+        TagCheckoutAction action = build == null ? null : build.getAction(TagCheckoutAction.class);
+        if (action == null)
+            return;
+
+        List<RemoteConfig> repos = scm.getParamExpandedRepos(build, listener);
+        if (repos.size() != 1) {
+            listener.getLogger().println("More than one repository configured, fetching all refs");
+            return;
+        }
+        URIish remote = repos.get(0).getURIs().get(0);
+        if (reference == null && MirrorCache.isEnabled()) {
+            // recreates the mirror this workspace borrows objects from, if it has been evicted
+            updateMirror(scm, build, remote, listener);
+        }
+        cmd.from(remote, Collections.singletonList(refSpec(action))).shallow(true).depth(1).tags(false);
+    }
+
+    @Override
+    public Revision decorateRevisionToBuild(GitSCM scm, Run<?, ?> build, GitClient git, TaskListener listener, Revision marked, Revision rev) throws IOException, InterruptedException, GitException {
+        TagCheckoutAction action = build.getAction(TagCheckoutAction.class);
+        if (action == null || action.getSha().equals(rev.getSha1()))
+            return rev;
+
+        ObjectId sha = action.getSha();
+        if (!git.isCommitInRepo(sha)) {
+            listener.getLogger().println("Tag " + action.getTag() + " has moved since it was polled, building " + rev.getSha1String());
+            return rev;
+        }
+        return new Revision(sha, Collections.singleton(new Branch(action.getRef(), sha)));
+    }
+
+    private static String updateMirror(GitSCM scm, Run<?, ?> build, URIish remote, TaskListener listener) throws IOException, InterruptedException {
+        Computer computer = Computer.currentComputer();
+        Node node = computer == null ? null : computer.getNode();
+        if (node == null)
+            return null;
+        return MirrorCache.update(node, build.getParent(), scm, remote, scm.getUserRemoteConfigs().get(0).getCredentialsId(), listener);
+    }
+
+    private static RefSpec refSpec(TagCheckoutAction action) {
+        return new RefSpec("+" + action.getRef() + ":" + action.getRef());
+    }
+
+    private static Run<?, ?> currentBuild() {
+        Executor executor = Executor.currentExecutor();
+        if (executor == null)
+            return null;
+        Queue.Executable executable = executor.getCurrentExecutable();
+        return executable instanceof Run ? (Run<?, ?>) executable : null;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends GitSCMExtensionDescriptor {
+        @Override
+        public String getDisplayName() {
+            return Messages.ShallowTagCheckout_DisplayName();
+        }
+    }
+}
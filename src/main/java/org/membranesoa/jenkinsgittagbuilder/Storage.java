@@ -1,59 +1,205 @@
 package org.membranesoa.jenkinsgittagbuilder;
 
+import hudson.Extension;
 import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.plugins.git.GitSCM;
+
+import org.eclipse.jgit.lib.ObjectId;
 
 import java.io.*;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * The tags a job already knows about, as recorded in the {@link TagStore}.
+ *
+ * Takes over the state kept by earlier versions of this plugin: {@code known-tags.bin} in the job's root directory and
+ * {@code known-tags.txt} in its workspace. Their tags are recorded without a SHA, which is filled in by the next poll.
+ */
 public class Storage {
 
-    FilePath knownTags;
-    private FilePath workspace;
+    private static final int LEGACY_MAGIC = 0x47544B31; // "GTK1"
+
+    private final TagStore store;
+
+    private final String job;
+
+    private final File legacyFile;
 
-    public Storage(FilePath workspace) {
-        knownTags = new FilePath(workspace, "known-tags.txt");
+    Storage(TagStore store, String job, File legacyFile) {
+        this.store = store;
+        this.job = job;
+        this.legacyFile = legacyFile;
+    }
 
-        this.workspace = workspace;
+    /**
+     * The known-tag state of the given job.
+     */
+    public static Storage forJob(Job<?, ?> job) {
+        return new Storage(TagStore.get(), job.getFullName(), new File(job.getRootDir(), "known-tags.bin"));
     }
 
     /**
-     * @param allTags
+     * Whether any tags have been recorded yet.
+     */
+    public boolean exists() throws IOException {
+        return legacyFile.exists() || store.contains(job);
+    }
+
+    /**
+     * @param remote the remote the tags were listed from
+     * @param allTags all tags of the remote, with the commits they point to; a listing that failed is empty and not a
+     * {@link GitTagHelper.RemoteTags}, and is ignored
+     * @param pollId identifies the polling that listed the tags
      * @return all newly discovered tags (compared to the last invocation)
      */
-    public Set<String> storeNewTags(Set<String> allTags) throws IOException, InterruptedException {
-        if (allTags.isEmpty())
+    public Map<String, ObjectId> storeNewTags(String remote, Map<String, ObjectId> allTags, long pollId) throws IOException {
+        if (!isListed(allTags))
             return allTags;
 
-        synchronized (Storage.class) {
-
-            HashSet<String> old = new HashSet<String>();
-            if (knownTags.exists()) {
-                try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(knownTags.read(), "UTF-8"))) {
-                    while (true) {
-                        String line = bufferedReader.readLine();
-                        if (line == null)
-                            break;
-                        else
-                            old.add(line);
-                    }
-                }
-
-                for (String tag : old)
-                    allTags.remove(tag);
-                for (String tag : allTags)
-                    old.add(tag);
-            } else {
-                old.addAll(allTags);
-                allTags.clear();
+        synchronized (store) {
+            if (legacyFile.exists()) {
+                store.putAll(job, remote, readLegacyFile(), legacyFile.lastModified());
+                Files.delete(legacyFile.toPath());
+            }
+        }
+        return store.storeNewTags(job, remote, allTags, pollId);
+    }
+
+    /**
+     * Marks the recorded tags that are no longer present on the remote as deleted, and prunes deleted tags beyond the
+     * retention limits, see {@link TagStore#reconcile}.
+     *
+     * @param allTags all tags of the remote; a successful listing that is empty means the remote has no tags left, a
+     * listing that failed is ignored, see {@link #storeNewTags}
+     * @return the tags found deleted since the last invocation
+     */
+    public Map<String, ObjectId> reconcile(String remote, Map<String, ObjectId> allTags, boolean forget, long maxAge, int maxCount) throws IOException {
+        if (!isListed(allTags))
+            return allTags;
+        return store.reconcile(job, remote, allTags, forget, maxAge, maxCount);
+    }
+
+    /**
+     * Whether the tags are the result of listing the remote, rather than of a polling that could not list it.
+     */
+    private static boolean isListed(Map<String, ObjectId> allTags) {
+        return !allTags.isEmpty() || allTags instanceof GitTagHelper.RemoteTags;
+    }
+
+    /**
+     * Takes over the tags recorded by earlier versions of this plugin in the {@code known-tags.txt} file of a workspace,
+     * unless tags have been recorded for this job already.
+     */
+    public void importLegacy(FilePath workspace, String remote) throws IOException, InterruptedException {
+        FilePath legacy = new FilePath(workspace, "known-tags.txt");
+        if (exists() || !legacy.exists())
+            return;
+
+        HashMap<String, ObjectId> tags = new HashMap<>();
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(legacy.read(), "UTF-8"))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null)
+                tags.put(line, ObjectId.zeroId());
+        }
+        store.putAll(job, remote, tags, legacy.lastModified());
+        LOGGER.info("Imported " + tags.size() + " known tags from " + legacy);
+    }
+
+    private Map<String, ObjectId> readLegacyFile() throws IOException {
+        HashMap<String, ObjectId> tags = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(legacyFile)))) {
+            if (in.readInt() != LEGACY_MAGIC)
+                throw new IOException(legacyFile + " is not a known-tags file");
+            while (true)
+                tags.put(in.readUTF(), ObjectId.zeroId());
+        } catch (EOFException e) {
+            // end of file, or a record cut short by a crash
+        }
+        LOGGER.info("Imported " + tags.size() + " known tags from " + legacyFile);
+        return tags;
+    }
+
+    /**
+     * A page of the tags recorded for this job whose names start with the given prefix, most recently seen first.
+     */
+    public TagStore.HistoryPage getHistory(String prefix, int start, int limit) throws IOException {
+        return store.getHistory(job, prefix, start, limit);
+    }
+
+    /**
+     * Records the build started for a tag.
+     */
+    public void recordBuild(String remote, String tag, int buildNumber) throws IOException {
+        store.recordBuild(job, remote, tag, buildNumber);
+    }
+
+    /**
+     * Records the metadata of annotated tags.
+     */
+    public void storeTagInfo(String remote, Map<String, TagInfo> infos) throws IOException {
+        if (!infos.isEmpty())
+            store.storeTagInfo(job, remote, infos);
+    }
+
+    /**
+     * The metadata recorded for the annotated tags of a remote.
+     */
+    public Map<String, TagInfo> getTagInfo(String remote) throws IOException {
+        return store.getTagInfo(job, remote);
+    }
+
+    /**
+     * Records the number of builds started for new tags.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<AbstractBuild<?, ?>> {
+        @Override
+        public void onStarted(AbstractBuild<?, ?> build, TaskListener listener) {
+            TagCheckoutAction action = build.getAction(TagCheckoutAction.class);
+            if (action == null || !(build.getProject().getScm() instanceof GitSCM))
+                return;
+            String remote = GitTagHelper.getPolledRemote((GitSCM) build.getProject().getScm());
+            try {
+                forJob(build.getParent()).recordBuild(remote, action.getTag(), build.getNumber());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to record " + build + " for tag " + action.getTag(), e);
             }
+        }
+    }
 
-            try (OutputStreamWriter fr = new OutputStreamWriter(knownTags.write(), "UTF-8")) {
-                for (String tag : old)
-                    fr.write(tag + System.lineSeparator());
+    /**
+     * Keeps the store in line with renamed and deleted jobs.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            try {
+                TagStore.get().dropJob(item.getFullName());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to drop the known tags of " + item.getFullName(), e);
             }
+        }
 
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            try {
+                TagStore.get().renameJob(oldFullName, newFullName);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to move the known tags of " + oldFullName + " to " + newFullName, e);
+            }
         }
-        return allTags;
     }
+
+    private static final Logger LOGGER = Logger.getLogger(Storage.class.getName());
 }
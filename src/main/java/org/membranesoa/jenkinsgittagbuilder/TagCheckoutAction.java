@@ -0,0 +1,54 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.model.Action;
+import hudson.model.InvisibleAction;
+import hudson.model.Queue;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.List;
+
+/**
+ * Attached to builds triggered by a new tag: the tag and the commit it pointed to when it was polled.
+ * {@link ShallowTagCheckout} uses it to fetch just that tag.
+ *
+ * In the queue, a build for a tag is merged with a queued build for the same tag and commit, and only with that.
+ */
+public class TagCheckoutAction extends InvisibleAction implements Queue.QueueAction {
+
+    private final String tag;
+
+    private final String sha;
+
+    public TagCheckoutAction(String tag, ObjectId sha) {
+        this.tag = tag;
+        this.sha = sha.name();
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public ObjectId getSha() {
+        return ObjectId.fromString(sha);
+    }
+
+    @Override
+    public boolean shouldSchedule(List<Action> actions) {
+        for (Action action : actions) {
+            if (action instanceof TagCheckoutAction) {
+                TagCheckoutAction that = (TagCheckoutAction) action;
+                if (tag.equals(that.tag) && sha.equals(that.sha))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The full name of the tag ref.
+     */
+    public String getRef() {
+        return "refs/tags/" + tag;
+    }
+}
@@ -0,0 +1,41 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import java.io.Serializable;
+
+/**
+ * Metadata of an annotated tag, as read by {@link TagMetadata}.
+ */
+public final class TagInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String tagger;
+
+    private final long date;
+
+    private final String message;
+
+    TagInfo(String tagger, long date, String message) {
+        this.tagger = tagger;
+        this.date = date;
+        this.message = message;
+    }
+
+    /**
+     * Name and email address of whoever created the tag, "" if the tag object does not say.
+     */
+    public String getTagger() {
+        return tagger;
+    }
+
+    /**
+     * When the tag was created, 0 if the tag object does not say.
+     */
+    public long getDate() {
+        return date;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
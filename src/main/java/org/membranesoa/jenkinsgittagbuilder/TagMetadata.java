@@ -0,0 +1,240 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the message, tagger and date of newly found annotated tags once per polling, so that the builds of these tags
+ * do not each have to.
+ *
+ * If the {@link MirrorCache} holds a mirror of the remote on some node, that mirror is brought up to date, which only
+ * transfers what is new, and the tag objects are read from it. Otherwise the tags found by one polling are fetched with
+ * a single shallow fetch into a temporary bare repository, in {@code git-tag-builder/tag-objects} on the polling agent
+ * responsible for the remote or, without polling agents, on the controller. That fetch also transfers the tagged
+ * commits with their files, so the repository is deleted once the tags are read.
+ *
+ * Either way the remote is called like when listing its tags: through the circuit breaker of its host, with the remote
+ * timeout and retries, within the deadline of the polling.
+ */
+public class TagMetadata {
+
+    private static final String TAG_OBJECTS = "git-tag-builder/tag-objects";
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private TagMetadata() {
+    }
+
+    /**
+     * Reads the given annotated tags of the polled remote of a job.
+     *
+     * @param tagObjects the tags, with the tag objects listed by the remote
+     * @return the metadata of the tags that could be read
+     */
+    public static Map<String, TagInfo> fetch(final AbstractProject<?, ?> project, final GitSCM scm, Map<String, ObjectId> tagObjects, final TaskListener listener) throws IOException, InterruptedException {
+        if (tagObjects.isEmpty() || scm.getUserRemoteConfigs().isEmpty())
+            return new HashMap<>();
+
+        final UserRemoteConfig config = scm.getUserRemoteConfigs().get(0);
+        final EnvVars env = GitTagHelper.getDefaultEnvironment(project, listener);
+        final String url = env.expand(config.getUrl());
+        final URIish remote;
+        try {
+            remote = new URIish(url);
+        } catch (URISyntaxException e) {
+            listener.error("Invalid repository URL " + url);
+            return new HashMap<>();
+        }
+
+        final HashMap<String, ObjectId> tags = new HashMap<>(tagObjects);
+        Map<String, TagInfo> result = GitTagHelper.callGuarded(remote, "read the annotated tags of", listener, new GitTagHelper.RemoteCallFactory<Map<String, TagInfo>>() {
+            @Override
+            public GitTagHelper.RemoteCall<Map<String, TagInfo>> create() throws IOException, InterruptedException {
+                final Node mirrorNode = MirrorCache.isEnabled() ? MirrorCache.getHolder(remote) : null;
+                if (mirrorNode != null) {
+                    listener.getLogger().println("Reading " + tags.size() + " annotated tags from the mirror on " + mirrorNode.getDisplayName());
+                    return new GitTagHelper.RemoteCall<Map<String, TagInfo>>() {
+                        @Override
+                        public Map<String, TagInfo> call(String remoteUrl) throws GitException, InterruptedException {
+                            try {
+                                String mirror = MirrorCache.update(mirrorNode, project, scm, remote, config.getCredentialsId(), listener);
+                                FilePath dir = mirror == null ? null : mirrorNode.createPath(mirror);
+                                if (dir == null)
+                                    throw new GitException(mirrorNode.getDisplayName() + " is offline");
+                                return dir.act(new ReadTags(tags));
+                            } catch (IOException e) {
+                                throw new GitException("Failed to read the annotated tags of " + remoteUrl + " from the mirror on " + mirrorNode.getDisplayName(), e);
+                            }
+                        }
+                    };
+                }
+
+                Node agent = PollingAgents.select(remote.toString());
+                final Node node = agent != null ? agent : Jenkins.getActiveInstance();
+                final String gitExe = scm.getGitExe(node, listener);
+                StandardUsernameCredentials credentials = GitTagHelper.lookupCredentials(project, config.getCredentialsId(), url);
+                final StandardUsernameCredentials snapshot = credentials == null ? null : CredentialsProvider.snapshot(StandardUsernameCredentials.class, credentials);
+                listener.getLogger().println("Fetching " + tags.size() + " annotated tags for their metadata" + (agent == null ? "" : " on " + agent.getDisplayName()));
+                return new GitTagHelper.RemoteCall<Map<String, TagInfo>>() {
+                    @Override
+                    public Map<String, TagInfo> call(String remoteUrl) throws GitException, InterruptedException {
+                        FilePath root = node.getRootPath();
+                        if (root == null)
+                            throw new GitException(node.getDisplayName() + " is offline");
+                        synchronized (lock(node.getNodeName() + " " + remoteUrl)) {
+                            try {
+                                return root.act(new FetchTags(remote, tags, gitExe, env, snapshot, listener));
+                            } catch (IOException e) {
+                                throw new GitException("Failed to fetch the annotated tags of " + remoteUrl + " on " + node.getDisplayName(), e);
+                            }
+                        }
+                    }
+                };
+            }
+        });
+        if (result == null)
+            return new HashMap<>();
+        if (result.size() < tags.size())
+            listener.getLogger().println("Could not read the tag objects of " + (tags.size() - result.size()) + " tags, they moved or are not annotated");
+        return result;
+    }
+
+    private static Object lock(String key) {
+        Object lock = LOCKS.get(key);
+        if (lock == null) {
+            Object existing = LOCKS.putIfAbsent(key, lock = new Object());
+            if (existing != null)
+                lock = existing;
+        }
+        return lock;
+    }
+
+    /**
+     * Reads tag objects from a repository, skipping those it does not have.
+     */
+    private static HashMap<String, TagInfo> read(File gitDir, Map<String, ObjectId> tagObjects) throws IOException {
+        HashMap<String, TagInfo> result = new HashMap<>();
+        try (Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).build();
+             RevWalk walk = new RevWalk(repository)) {
+            for (Map.Entry<String, ObjectId> tag : tagObjects.entrySet()) {
+                try {
+                    result.put(tag.getKey(), read(walk.parseTag(tag.getValue())));
+                } catch (MissingObjectException | IncorrectObjectTypeException e) {
+                    // moved or deleted since it was listed, or not a tag object after all
+                }
+            }
+        }
+        return result;
+    }
+
+    private static TagInfo read(RevTag tag) {
+        PersonIdent tagger = tag.getTaggerIdent();
+        if (tagger == null)
+            return new TagInfo("", 0, tag.getFullMessage());
+        return new TagInfo(tagger.getName() + " <" + tagger.getEmailAddress() + ">", tagger.getWhen().getTime(), tag.getFullMessage());
+    }
+
+    /**
+     * Reads tag objects from a mirror.
+     */
+    private static final class ReadTags extends MasterToSlaveFileCallable<HashMap<String, TagInfo>> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, ObjectId> tagObjects;
+
+        ReadTags(HashMap<String, ObjectId> tagObjects) {
+            this.tagObjects = tagObjects;
+        }
+
+        @Override
+        public HashMap<String, TagInfo> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            return read(dir, tagObjects);
+        }
+    }
+
+    /**
+     * Fetches tags into a temporary repository under the root directory of a node and reads their tag objects.
+     */
+    private static final class FetchTags extends MasterToSlaveFileCallable<HashMap<String, TagInfo>> {
+        private static final long serialVersionUID = 1L;
+
+        private final URIish remote;
+        private final HashMap<String, ObjectId> tagObjects;
+        private final String gitExe;
+        private final EnvVars env;
+        private final StandardUsernameCredentials credentials;
+        private final TaskListener listener;
+
+        FetchTags(URIish remote, HashMap<String, ObjectId> tagObjects, String gitExe, EnvVars env, StandardUsernameCredentials credentials, TaskListener listener) {
+            this.remote = remote;
+            this.tagObjects = tagObjects;
+            this.gitExe = gitExe;
+            this.env = env;
+            this.credentials = credentials;
+            this.listener = listener;
+        }
+
+        @Override
+        public HashMap<String, TagInfo> invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            File dir = new File(root, TAG_OBJECTS + "/" + Util.getDigestOf(remote.toString()) + ".git");
+            // left over by a crash, or kept by earlier versions
+            if (dir.exists())
+                Util.deleteRecursive(dir);
+            try {
+                GitClient git = Git.with(listener, env).in(dir).using(gitExe).getClient();
+                if (credentials != null)
+                    git.addDefaultCredentials(credentials);
+                if (!dir.mkdirs())
+                    throw new IOException("Could not create directory " + dir);
+                git.init_().workspace(dir.getPath()).bare(true).execute();
+
+                List<RefSpec> refspecs = new ArrayList<>();
+                for (String tag : tagObjects.keySet())
+                    refspecs.add(new RefSpec("+refs/tags/" + tag + ":refs/tags/" + tag));
+                git.fetch_().from(remote, refspecs).shallow(true).depth(1).tags(false).execute();
+                return read(dir, tagObjects);
+            } finally {
+                try {
+                    Util.deleteRecursive(dir);
+                } catch (IOException e) {
+                    listener.getLogger().println("Could not delete " + dir + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterValue;
+import hudson.model.TextParameterValue;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parameters of the builds triggered by the tags found by one polling.
+ *
+ * The default values of the job's other parameters are computed once and shared by all tags, as some parameter types
+ * run scripts to compute them. Besides {@code tagName}, parameters derived from the tag are passed if the job declares
+ * a parameter of that name: {@code tagSha} and, for tags containing a version number, {@code tagVersion},
+ * {@code tagVersionMajor}, {@code tagVersionMinor} and {@code tagVersionPatch}, and for annotated tags whose metadata was
+ * fetched, {@code tagMessage}, {@code tagger} and {@code tagDate}.
+ */
+class TagParameters {
+
+    private static final Pattern VERSION = Pattern.compile("\\d+(\\.\\d+)*");
+
+    private static final String[] VERSION_PARTS = {"tagVersionMajor", "tagVersionMinor", "tagVersionPatch"};
+
+    private final Set<String> declared = new HashSet<>();
+
+    private final List<ParameterValue> defaults = new ArrayList<>();
+
+    TagParameters(Item job) {
+        ParametersDefinitionProperty paramDefProp = job instanceof Job ? ((Job<?, ?>) job).getProperty(ParametersDefinitionProperty.class) : null;
+        if (paramDefProp == null)
+            return;
+
+        for (ParameterDefinition paramDefinition : paramDefProp.getParameterDefinitions()) {
+            declared.add(paramDefinition.getName());
+            if (paramDefinition.getName().equals("tagName"))
+                continue;
+            ParameterValue defaultValue = paramDefinition.getDefaultParameterValue();
+            if (defaultValue != null)
+                defaults.add(defaultValue);
+        }
+    }
+
+    /**
+     * The parameters of the build for a tag: {@code tagName}, the derived ones and the defaults of all others.
+     *
+     * @param info metadata of the tag, null if unknown
+     */
+    List<ParameterValue> forTag(String tag, ObjectId sha, TagInfo info) {
+        List<ParameterValue> values = new ArrayList<>();
+        values.add(new TextParameterValue("tagName", tag));
+        Set<String> derived = new HashSet<>();
+        for (Map.Entry<String, String> parameter : derive(tag, sha, info).entrySet()) {
+            if (declared.contains(parameter.getKey())) {
+                values.add(parameter.getKey().equals("tagMessage")
+                        ? new TextParameterValue(parameter.getKey(), parameter.getValue())
+                        : new StringParameterValue(parameter.getKey(), parameter.getValue()));
+                derived.add(parameter.getKey());
+            }
+        }
+        for (ParameterValue defaultValue : defaults)
+            if (!derived.contains(defaultValue.getName()))
+                values.add(defaultValue);
+        return values;
+    }
+
+    static Map<String, String> derive(String tag, ObjectId sha, TagInfo info) {
+        Map<String, String> derived = new LinkedHashMap<>();
+        derived.put("tagSha", sha.name());
+        Matcher version = VERSION.matcher(tag);
+        if (version.find()) {
+            derived.put("tagVersion", version.group());
+            String[] parts = version.group().split("\\.");
+            for (int i = 0; i < parts.length && i < VERSION_PARTS.length; i++)
+                derived.put(VERSION_PARTS[i], parts[i]);
+        }
+        if (info != null) {
+            derived.put("tagMessage", info.getMessage());
+            derived.put("tagger", info.getTagger());
+            if (info.getDate() != 0) {
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                derived.put("tagDate", format.format(new Date(info.getDate())));
+            }
+        }
+        return derived;
+    }
+}
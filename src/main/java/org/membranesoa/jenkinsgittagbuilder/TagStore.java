@@ -0,0 +1,988 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.util.TimeUnit2;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Tag state of all jobs, keyed by (job, remote, tag), in one log-structured file. Besides the commit a tag points to,
+ * it keeps when the tag was first seen, by which polling, which build was started for it, when it was deleted from the
+ * remote and, for annotated tags whose metadata was fetched, the {@link TagInfo}. Deleted tags are kept, so that they do
+ * not count as new if they come back, until {@link #reconcile} prunes them. A remote stays known once polled, even
+ * when it has no tags or all of them were pruned, so that its next tags count as new.
+ *
+ * Every change is a record appended to the log; each record carries its length and a CRC32, so a record cut short
+ * by a crash is detected and dropped on the next load. The log is read once, on first use, and the state is then kept
+ * in memory. Records produced by one operation are written with a single write. If that write fails, the log is cut
+ * back to where the operation began and read again on next access, so the state in memory never runs ahead of the
+ * log. When most records in the log are superseded, the log is compacted in the background by rewriting the live
+ * state into a new file, without holding up the pollings that write to the store meanwhile.
+ *
+ * The log is written through a {@link RandomAccessFile} rather than a {@link java.nio.channels.FileChannel}: pollings
+ * write to it and get interrupted when they exceed their {@link Deadline}, which would close a channel for good.
+ */
+public class TagStore {
+
+    private static final int MAGIC = 0x47545331; // "GTS1"
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte DROP_JOB = 3;
+    private static final byte RENAME_JOB = 4;
+    private static final byte TAG = 5;
+    private static final byte BUILT = 6;
+    private static final byte TAG_INFO = 7;
+    private static final byte GONE = 8;
+    private static final byte INITIALIZED = 9;
+
+    private static TagStore instance;
+
+    private final File file;
+
+    /**
+     * job -> remote -> tag -> state; null until loaded.
+     */
+    private Map<String, Map<String, Map<String, TagState>>> jobs;
+
+    private RandomAccessFile log;
+
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    private final CRC32 crc = new CRC32();
+
+    private long records;
+
+    private long liveRecords;
+
+    private boolean compactionScheduled;
+
+    private boolean compacting;
+
+    /**
+     * job -> its history, most recently seen first; cleared whenever the store changes.
+     */
+    private final Map<String, List<HistoryEntry>> histories = new HashMap<>();
+
+    TagStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The store of this Jenkins instance.
+     */
+    public static synchronized TagStore get() {
+        if (instance == null)
+            instance = new TagStore(new File(Jenkins.getInstance().getRootDir(), "git-tag-builder/tags.log"));
+        return instance;
+    }
+
+    /**
+     * Whether anything has been recorded for the given job.
+     */
+    public synchronized boolean contains(String job) throws IOException {
+        load();
+        return jobs.containsKey(job);
+    }
+
+    /**
+     * Returns a snapshot of the tags recorded for a remote of a job.
+     */
+    public synchronized Map<String, TagState> getTags(String job, String remote) throws IOException {
+        load();
+        Map<String, TagState> tags = getRemote(job, remote, false);
+        return tags == null ? Collections.<String, TagState>emptyMap() : new HashMap<>(tags);
+    }
+
+    /**
+     * When the most recently discovered tag of a job that is still present was first seen, 0 if there is none.
+     */
+    public synchronized long getLastSeen(String job) throws IOException {
+        load();
+        long last = 0;
+        Map<String, Map<String, TagState>> remotes = jobs.get(job);
+        if (remotes != null)
+            for (Map<String, TagState> tags : remotes.values())
+                for (TagState state : tags.values())
+                    if (state.deletedAt == 0)
+                        last = Math.max(last, state.firstSeen);
+        return last;
+    }
+
+    /**
+     * Returns a page of the tags recorded for all remotes of a job whose names start with the given prefix, most
+     * recently seen first. The sorted history of a job is kept until the store changes, so paging through it does not
+     * sort it again.
+     *
+     * @param start index of the first tag of the page among the matching tags
+     * @param limit max number of tags in the page
+     */
+    public synchronized HistoryPage getHistory(String job, String prefix, int start, int limit) throws IOException {
+        load();
+        List<HistoryEntry> history = histories.get(job);
+        if (history == null) {
+            history = new ArrayList<>();
+            Map<String, Map<String, TagState>> remotes = jobs.get(job);
+            if (remotes != null)
+                for (Map.Entry<String, Map<String, TagState>> remote : remotes.entrySet())
+                    for (Map.Entry<String, TagState> tag : remote.getValue().entrySet())
+                        history.add(new HistoryEntry(remote.getKey(), tag.getKey(), tag.getValue()));
+            Collections.sort(history);
+            histories.put(job, history);
+        }
+
+        start = Math.max(0, start);
+        if (prefix.isEmpty()) {
+            int from = Math.min(start, history.size());
+            int to = Math.min(history.size(), from + limit);
+            return new HistoryPage(history.size(), from, new ArrayList<>(history.subList(from, to)));
+        }
+        int total = 0;
+        List<HistoryEntry> page = new ArrayList<>();
+        for (HistoryEntry entry : history) {
+            if (!entry.tag.startsWith(prefix))
+                continue;
+            if (total >= start && page.size() < limit)
+                page.add(entry);
+            total++;
+        }
+        return new HistoryPage(total, Math.min(start, total), page);
+    }
+
+    /**
+     * Returns the metadata recorded for the annotated tags of a remote of a job.
+     */
+    public synchronized Map<String, TagInfo> getTagInfo(String job, String remote) throws IOException {
+        load();
+        Map<String, TagInfo> result = new HashMap<>();
+        Map<String, TagState> tags = getRemote(job, remote, false);
+        if (tags != null)
+            for (Map.Entry<String, TagState> tag : tags.entrySet())
+                if (tag.getValue().info != null)
+                    result.put(tag.getKey(), tag.getValue().info);
+        return result;
+    }
+
+    /**
+     * Records the tags currently present on a remote.
+     *
+     * @param pollId identifies the polling that listed the tags
+     * @return the tags not recorded before; empty if this remote of the job was not polled before, as the tags present
+     * when a job is set up are not considered new
+     */
+    public synchronized Map<String, ObjectId> storeNewTags(String job, String remote, Map<String, ObjectId> tags, long pollId) throws IOException {
+        load();
+        Map<String, TagState> known = getRemote(job, remote, false);
+        boolean initial = known == null;
+        if (initial) {
+            known = getRemote(job, remote, true);
+            // the records of its tags recreate the remote on load, but it may have none yet
+            if (tags.isEmpty())
+                writeInitialized(job, remote);
+        }
+        long now = System.currentTimeMillis();
+
+        Map<String, ObjectId> newTags = new HashMap<>();
+        for (Map.Entry<String, ObjectId> tag : tags.entrySet()) {
+            TagState state = known.get(tag.getKey());
+            if (state == null) {
+                state = new TagState(tag.getValue().copy(), now, pollId, 0);
+                known.put(tag.getKey(), state);
+                liveRecords++;
+                newTags.put(tag.getKey(), tag.getValue());
+            } else if (!state.sha.equals(tag.getValue())) {
+                // the tag was moved; keep it known, but remember where it points to now
+                state.sha = tag.getValue().copy();
+                liveRecords -= state.records() - 1;
+                state.info = null;
+                state.deletedAt = 0;
+            } else if (state.deletedAt != 0) {
+                // the tag was deleted and recreated
+                state.deletedAt = 0;
+                liveRecords--;
+            } else {
+                continue;
+            }
+            writePut(job, remote, tag.getKey(), state);
+            if (state.info != null)
+                writeInfo(job, remote, tag.getKey(), state.info);
+        }
+        commit();
+
+        if (initial)
+            newTags.clear();
+        return newTags;
+    }
+
+    /**
+     * Marks the recorded tags of a remote that are no longer present on it as deleted, and prunes deleted tags beyond
+     * the retention limits. Pruned tags count as new if they come back.
+     *
+     * @param tags all tags currently present on the remote
+     * @param forget whether deleted tags are pruned right away
+     * @param maxAge how long deleted tags are kept, in milliseconds; 0 for no limit
+     * @param maxCount how many deleted tags of the remote are kept; 0 for no limit
+     * @return the tags found deleted by this call, with the commits they pointed to
+     */
+    public synchronized Map<String, ObjectId> reconcile(String job, String remote, Map<String, ObjectId> tags, boolean forget, long maxAge, int maxCount) throws IOException {
+        load();
+        Map<String, ObjectId> deleted = new HashMap<>();
+        Map<String, TagState> known = getRemote(job, remote, false);
+        if (known == null)
+            return deleted;
+        long now = System.currentTimeMillis();
+
+        List<Map.Entry<String, TagState>> kept = new ArrayList<>();
+        for (Iterator<Map.Entry<String, TagState>> it = known.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, TagState> tag = it.next();
+            TagState state = tag.getValue();
+            if (tags.containsKey(tag.getKey()))
+                continue;
+            if (state.deletedAt == 0) {
+                deleted.put(tag.getKey(), state.sha);
+                state.deletedAt = now;
+                liveRecords++;
+                if (!forget)
+                    writeGone(job, remote, tag.getKey(), now);
+            }
+            if (forget || maxAge > 0 && now - state.deletedAt > maxAge) {
+                it.remove();
+                liveRecords -= state.records();
+                writeDelete(job, remote, tag.getKey());
+            } else {
+                kept.add(tag);
+            }
+        }
+
+        if (maxCount > 0 && kept.size() > maxCount) {
+            Collections.sort(kept, new Comparator<Map.Entry<String, TagState>>() {
+                @Override
+                public int compare(Map.Entry<String, TagState> a, Map.Entry<String, TagState> b) {
+                    return Long.compare(a.getValue().deletedAt, b.getValue().deletedAt);
+                }
+            });
+            for (Map.Entry<String, TagState> tag : kept.subList(0, kept.size() - maxCount)) {
+                known.remove(tag.getKey());
+                liveRecords -= tag.getValue().records();
+                writeDelete(job, remote, tag.getKey());
+            }
+        }
+        commit();
+        return deleted;
+    }
+
+    /**
+     * Records tags without reporting any of them as new.
+     */
+    public synchronized void putAll(String job, String remote, Map<String, ObjectId> tags, long firstSeen) throws IOException {
+        if (tags.isEmpty())
+            return; // the remote counts as polled once it is recorded
+        load();
+        Map<String, TagState> known = getRemote(job, remote, true);
+        for (Map.Entry<String, ObjectId> tag : tags.entrySet()) {
+            if (known.containsKey(tag.getKey()))
+                continue;
+            TagState state = new TagState(tag.getValue().copy(), firstSeen, 0, 0);
+            known.put(tag.getKey(), state);
+            liveRecords++;
+            writePut(job, remote, tag.getKey(), state);
+        }
+        commit();
+    }
+
+    /**
+     * Records the build started for a tag.
+     */
+    public synchronized void recordBuild(String job, String remote, String tag, int buildNumber) throws IOException {
+        load();
+        Map<String, TagState> known = getRemote(job, remote, false);
+        TagState state = known == null ? null : known.get(tag);
+        if (state == null || state.buildNumber == buildNumber)
+            return;
+        state.buildNumber = buildNumber;
+        beginRecord(BUILT);
+        recordOut.writeUTF(job);
+        recordOut.writeUTF(remote);
+        recordOut.writeUTF(tag);
+        recordOut.writeInt(buildNumber);
+        endRecord();
+        commit();
+    }
+
+    /**
+     * Records the metadata of annotated tags.
+     */
+    public synchronized void storeTagInfo(String job, String remote, Map<String, TagInfo> infos) throws IOException {
+        load();
+        Map<String, TagState> known = getRemote(job, remote, false);
+        if (known == null)
+            return;
+        for (Map.Entry<String, TagInfo> info : infos.entrySet()) {
+            TagState state = known.get(info.getKey());
+            if (state == null)
+                continue;
+            if (state.info == null)
+                liveRecords++;
+            state.info = truncate(info.getValue());
+            writeInfo(job, remote, info.getKey(), state.info);
+        }
+        commit();
+    }
+
+    /**
+     * Forgets tags of a remote of a job.
+     */
+    public synchronized void removeAll(String job, String remote, Iterable<String> tags) throws IOException {
+        load();
+        Map<String, TagState> known = getRemote(job, remote, false);
+        if (known == null)
+            return;
+        for (String tag : tags) {
+            TagState state = known.remove(tag);
+            if (state == null)
+                continue;
+            liveRecords -= state.records();
+            writeDelete(job, remote, tag);
+        }
+        commit();
+    }
+
+    public synchronized void dropJob(String job) throws IOException {
+        load();
+        Map<String, Map<String, TagState>> remotes = jobs.remove(job);
+        if (remotes == null)
+            return;
+        for (Map<String, TagState> tags : remotes.values())
+            liveRecords -= records(tags);
+        beginRecord(DROP_JOB);
+        recordOut.writeUTF(job);
+        endRecord();
+        commit();
+    }
+
+    public synchronized void renameJob(String oldName, String newName) throws IOException {
+        load();
+        Map<String, Map<String, TagState>> remotes = jobs.remove(oldName);
+        if (remotes == null)
+            return;
+        jobs.put(newName, remotes);
+        beginRecord(RENAME_JOB);
+        recordOut.writeUTF(oldName);
+        recordOut.writeUTF(newName);
+        endRecord();
+        commit();
+    }
+
+    /**
+     * Reads the log, unless that has happened already.
+     */
+    public synchronized void load() throws IOException {
+        if (jobs != null)
+            return;
+
+        Map<String, Map<String, Map<String, TagState>>> loaded = new HashMap<>();
+        jobs = loaded;
+        records = 0;
+        liveRecords = 0;
+
+        long valid = 0;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC)
+                    throw new IOException(file + " is not a tag store");
+                valid = 4;
+                while (true) {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_SIZE)
+                        break;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+                    apply(payload);
+                    valid += 8 + length;
+                }
+            } catch (EOFException e) {
+                // end of the log
+            } catch (IOException e) {
+                jobs = null;
+                throw e;
+            }
+        }
+
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create directory " + dir);
+
+        try {
+            log = new RandomAccessFile(file, "rw");
+            if (log.length() > valid) {
+                if (valid > 0)
+                    LOGGER.warning("Discarding " + (log.length() - valid) + " bytes of incomplete or corrupt records at the end of " + file);
+                log.setLength(valid);
+            }
+            log.seek(valid);
+            if (valid == 0)
+                log.writeInt(MAGIC);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the log; the next access reads it again.
+     */
+    synchronized void close() throws IOException {
+        RandomAccessFile closing = log;
+        log = null;
+        jobs = null;
+        histories.clear();
+        if (closing != null)
+            closing.close();
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        records++;
+        switch (in.readByte()) {
+            case PUT: {
+                Map<String, TagState> tags = getRemote(in.readUTF(), in.readUTF(), true);
+                String tag = in.readUTF();
+                byte[] sha = new byte[Constants.OBJECT_ID_LENGTH];
+                in.readFully(sha);
+                if (tags.put(tag, new TagState(ObjectId.fromRaw(sha), in.readLong(), 0, 0)) == null)
+                    liveRecords++;
+                break;
+            }
+            case TAG: {
+                Map<String, TagState> tags = getRemote(in.readUTF(), in.readUTF(), true);
+                String tag = in.readUTF();
+                byte[] sha = new byte[Constants.OBJECT_ID_LENGTH];
+                in.readFully(sha);
+                TagState previous = tags.put(tag, new TagState(ObjectId.fromRaw(sha), in.readLong(), in.readLong(), in.readInt()));
+                liveRecords += 1 - (previous == null ? 0 : previous.records());
+                break;
+            }
+            case TAG_INFO: {
+                Map<String, TagState> tags = getRemote(in.readUTF(), in.readUTF(), false);
+                TagState state = tags == null ? null : tags.get(in.readUTF());
+                TagInfo info = new TagInfo(in.readUTF(), in.readLong(), in.readUTF());
+                if (state != null) {
+                    if (state.info == null)
+                        liveRecords++;
+                    state.info = info;
+                }
+                break;
+            }
+            case BUILT: {
+                Map<String, TagState> tags = getRemote(in.readUTF(), in.readUTF(), false);
+                TagState state = tags == null ? null : tags.get(in.readUTF());
+                if (state != null)
+                    state.buildNumber = in.readInt();
+                break;
+            }
+            case INITIALIZED:
+                getRemote(in.readUTF(), in.readUTF(), true);
+                break;
+            case GONE: {
+                Map<String, TagState> tags = getRemote(in.readUTF(), in.readUTF(), false);
+                TagState state = tags == null ? null : tags.get(in.readUTF());
+                long deletedAt = in.readLong();
+                if (state != null) {
+                    if (state.deletedAt == 0)
+                        liveRecords++;
+                    state.deletedAt = deletedAt;
+                }
+                break;
+            }
+            case DELETE: {
+                Map<String, TagState> tags = getRemote(in.readUTF(), in.readUTF(), false);
+                TagState state = tags == null ? null : tags.remove(in.readUTF());
+                if (state != null)
+                    liveRecords -= state.records();
+                break;
+            }
+            case DROP_JOB: {
+                Map<String, Map<String, TagState>> remotes = jobs.remove(in.readUTF());
+                if (remotes != null)
+                    for (Map<String, TagState> tags : remotes.values())
+                        liveRecords -= records(tags);
+                break;
+            }
+            case RENAME_JOB: {
+                Map<String, Map<String, TagState>> remotes = jobs.remove(in.readUTF());
+                String newName = in.readUTF();
+                if (remotes != null)
+                    jobs.put(newName, remotes);
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type in " + file);
+        }
+    }
+
+    private Map<String, TagState> getRemote(String job, String remote, boolean create) {
+        Map<String, Map<String, TagState>> remotes = jobs.get(job);
+        if (remotes == null) {
+            if (!create)
+                return null;
+            jobs.put(job, remotes = new HashMap<>());
+        }
+        Map<String, TagState> tags = remotes.get(remote);
+        if (tags == null && create)
+            remotes.put(remote, tags = new TreeMap<>());
+        return tags;
+    }
+
+    private void writePut(String job, String remote, String tag, TagState state) throws IOException {
+        beginRecord(TAG);
+        recordOut.writeUTF(job);
+        recordOut.writeUTF(remote);
+        recordOut.writeUTF(tag);
+        state.sha.copyRawTo(recordOut);
+        recordOut.writeLong(state.firstSeen);
+        recordOut.writeLong(state.pollId);
+        recordOut.writeInt(state.buildNumber);
+        endRecord();
+    }
+
+    private void writeInfo(String job, String remote, String tag, TagInfo info) throws IOException {
+        beginRecord(TAG_INFO);
+        recordOut.writeUTF(job);
+        recordOut.writeUTF(remote);
+        recordOut.writeUTF(tag);
+        recordOut.writeUTF(info.getTagger());
+        recordOut.writeLong(info.getDate());
+        recordOut.writeUTF(info.getMessage());
+        endRecord();
+    }
+
+    private void writeGone(String job, String remote, String tag, long deletedAt) throws IOException {
+        beginRecord(GONE);
+        recordOut.writeUTF(job);
+        recordOut.writeUTF(remote);
+        recordOut.writeUTF(tag);
+        recordOut.writeLong(deletedAt);
+        endRecord();
+    }
+
+    private void writeInitialized(String job, String remote) throws IOException {
+        beginRecord(INITIALIZED);
+        recordOut.writeUTF(job);
+        recordOut.writeUTF(remote);
+        endRecord();
+    }
+
+    private void writeDelete(String job, String remote, String tag) throws IOException {
+        beginRecord(DELETE);
+        recordOut.writeUTF(job);
+        recordOut.writeUTF(remote);
+        recordOut.writeUTF(tag);
+        endRecord();
+    }
+
+    /**
+     * Cuts the message short, so that it fits into a record.
+     */
+    private static TagInfo truncate(TagInfo info) {
+        if (info.getMessage().length() <= MAX_MESSAGE_LENGTH && info.getTagger().length() <= MAX_MESSAGE_LENGTH)
+            return info;
+        return new TagInfo(abbreviate(info.getTagger()), info.getDate(), abbreviate(info.getMessage()));
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() <= MAX_MESSAGE_LENGTH ? s : s.substring(0, MAX_MESSAGE_LENGTH);
+    }
+
+    private static long records(Map<String, TagState> tags) {
+        long records = 0;
+        for (TagState state : tags.values())
+            records += state.records();
+        return records;
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        record.reset();
+        recordOut.writeByte(type);
+    }
+
+    private void endRecord() throws IOException {
+        byte[] payload = record.toByteArray();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        DataOutputStream out = new DataOutputStream(batch);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+        records++;
+    }
+
+    /**
+     * Writes the records of the current operation to the log. If that fails, the changes the operation made in memory
+     * are dropped along with the rest of the state, which is read again from the log on next access.
+     */
+    private void commit() throws IOException {
+        if (batch.size() == 0)
+            return;
+        histories.clear();
+        long start = log.getFilePointer();
+        try {
+            log.write(batch.toByteArray());
+            if (SYNC)
+                log.getFD().sync();
+        } catch (IOException e) {
+            rollback(start);
+            throw e;
+        } finally {
+            batch.reset();
+        }
+
+        if (!compactionScheduled && log.length() > COMPACTION_THRESHOLD && records > 2 * liveRecords) {
+            compactionScheduled = true;
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to compact " + file, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Cuts the log back to the given length and drops the state in memory, after an operation could not be written.
+     */
+    private void rollback(long length) {
+        try {
+            log.setLength(length);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to discard a partly written operation at the end of " + file, e);
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close " + file, e);
+        }
+    }
+
+    /**
+     * Rewrites the log with one record per live tag. Only taking a snapshot of the live records and swapping the logs
+     * happen with the store locked; the snapshot is written and forced to disk in between, while pollings keep
+     * appending to the old log. The records they append meanwhile are copied over before the swap.
+     */
+    void compact() throws IOException {
+        byte[] snapshot;
+        long snapshotRecords;
+        long recordsBefore;
+        long copyFrom;
+        RandomAccessFile compacted;
+        synchronized (this) {
+            compactionScheduled = false;
+            if (compacting)
+                return;
+            load();
+            recordsBefore = records;
+            try {
+                for (Map.Entry<String, Map<String, Map<String, TagState>>> job : jobs.entrySet()) {
+                    for (Map.Entry<String, Map<String, TagState>> remote : job.getValue().entrySet()) {
+                        if (remote.getValue().isEmpty())
+                            writeInitialized(job.getKey(), remote.getKey());
+                        for (Map.Entry<String, TagState> tag : remote.getValue().entrySet()) {
+                            writePut(job.getKey(), remote.getKey(), tag.getKey(), tag.getValue());
+                            if (tag.getValue().info != null)
+                                writeInfo(job.getKey(), remote.getKey(), tag.getKey(), tag.getValue().info);
+                            if (tag.getValue().deletedAt != 0)
+                                writeGone(job.getKey(), remote.getKey(), tag.getKey(), tag.getValue().deletedAt);
+                        }
+                    }
+                }
+                snapshot = batch.toByteArray();
+            } finally {
+                batch.reset();
+                snapshotRecords = records - recordsBefore;
+                records = recordsBefore;
+            }
+            copyFrom = log.getFilePointer();
+            compacted = log;
+            compacting = true;
+        }
+
+        File tmp = new File(file.getPath() + ".compact");
+        try {
+            try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                out.setLength(0);
+                out.writeInt(MAGIC);
+                out.write(snapshot);
+                out.getFD().sync();
+            }
+            swap(tmp, compacted, copyFrom, recordsBefore, snapshotRecords);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+            if (tmp.exists() && !tmp.delete())
+                LOGGER.fine("Failed to delete " + tmp);
+        }
+    }
+
+    /**
+     * Replaces the log with the compacted one, after copying the records appended since the snapshot.
+     *
+     * @param compacted the log the snapshot was taken of
+     * @param copyFrom where the records appended since the snapshot start in that log
+     * @param recordsBefore the number of records in that log when the snapshot was taken
+     */
+    private synchronized void swap(File tmp, RandomAccessFile compacted, long copyFrom, long recordsBefore, long snapshotRecords) throws IOException {
+        if (log != compacted) {
+            // read again after a failed write, so the snapshot may hold changes that never made it into the log
+            LOGGER.fine("Discarding the compaction of " + file + ", which was read again meanwhile");
+            return;
+        }
+        long before = log.length();
+        byte[] appended = new byte[(int) (before - copyFrom)];
+        log.seek(copyFrom);
+        log.readFully(appended);
+        log.seek(before);
+        if (appended.length > 0) {
+            try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                out.seek(out.length());
+                out.write(appended);
+                out.getFD().sync();
+            }
+        }
+
+        log.close();
+        log = null;
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = snapshotRecords + records - recordsBefore;
+        } finally {
+            // the old log if the move failed
+            log = new RandomAccessFile(file, "rw");
+            log.seek(log.length());
+        }
+        LOGGER.fine("Compacted " + file + " from " + before + " to " + log.length() + " bytes");
+    }
+
+    /**
+     * Recorded state of a tag.
+     */
+    public static final class TagState {
+        private ObjectId sha;
+        private final long firstSeen;
+        private final long pollId;
+        private int buildNumber;
+        private TagInfo info;
+        private long deletedAt;
+
+        TagState(ObjectId sha, long firstSeen, long pollId, int buildNumber) {
+            this.sha = sha;
+            this.firstSeen = firstSeen;
+            this.pollId = pollId;
+            this.buildNumber = buildNumber;
+        }
+
+        /**
+         * The commit the tag points to, as seen by the latest polling.
+         */
+        public ObjectId getSha() {
+            return sha;
+        }
+
+        /**
+         * When the tag was discovered.
+         */
+        public long getFirstSeen() {
+            return firstSeen;
+        }
+
+        /**
+         * Start time of the polling that discovered the tag, 0 if unknown.
+         */
+        public long getPollId() {
+            return pollId;
+        }
+
+        /**
+         * Number of the build started for the tag, 0 if none.
+         */
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        /**
+         * Metadata of the annotated tag, null if not fetched.
+         */
+        public TagInfo getInfo() {
+            return info;
+        }
+
+        /**
+         * When the tag was found deleted from the remote, 0 if it is present.
+         */
+        public long getDeletedAt() {
+            return deletedAt;
+        }
+
+        /**
+         * Number of records it takes to write this state.
+         */
+        int records() {
+            return 1 + (info == null ? 0 : 1) + (deletedAt == 0 ? 0 : 1);
+        }
+    }
+
+    /**
+     * A page of the history of a job, see {@link #getHistory}.
+     */
+    public static final class HistoryPage {
+        private final int total;
+        private final int start;
+        private final List<HistoryEntry> entries;
+
+        HistoryPage(int total, int start, List<HistoryEntry> entries) {
+            this.total = total;
+            this.start = start;
+            this.entries = entries;
+        }
+
+        /**
+         * Number of matching tags in the whole history.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Index of the first tag of the page among the matching tags.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        public List<HistoryEntry> getEntries() {
+            return Collections.unmodifiableList(entries);
+        }
+    }
+
+    /**
+     * A tag of a job in {@link #getHistory}.
+     */
+    public static final class HistoryEntry implements Comparable<HistoryEntry> {
+        private final String remote;
+        private final String tag;
+        private final ObjectId sha;
+        private final long firstSeen;
+        private final long pollId;
+        private final int buildNumber;
+        private final TagInfo info;
+        private final long deletedAt;
+
+        HistoryEntry(String remote, String tag, TagState state) {
+            this.remote = remote;
+            this.tag = tag;
+            this.sha = state.sha;
+            this.firstSeen = state.firstSeen;
+            this.pollId = state.pollId;
+            this.buildNumber = state.buildNumber;
+            this.info = state.info;
+            this.deletedAt = state.deletedAt;
+        }
+
+        public String getRemote() {
+            return remote;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public ObjectId getSha() {
+            return sha;
+        }
+
+        public long getFirstSeen() {
+            return firstSeen;
+        }
+
+        public long getPollId() {
+            return pollId;
+        }
+
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        public TagInfo getInfo() {
+            return info;
+        }
+
+        public long getDeletedAt() {
+            return deletedAt;
+        }
+
+        @Override
+        public int compareTo(HistoryEntry that) {
+            if (firstSeen != that.firstSeen)
+                return firstSeen > that.firstSeen ? -1 : 1;
+            return tag.compareTo(that.tag);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(TagStore.class.getName());
+
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    /**
+     * Longest tag message kept; {@link DataOutputStream#writeUTF} takes at most 64 KB, up to 3 bytes per character.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 16 * 1024;
+
+    /**
+     * Whether every write is forced to disk. Writes only happen when new tags are found, so this is cheap.
+     */
+    public static boolean SYNC = !Boolean.getBoolean(GitTagTrigger.class.getName() + ".tagStoreNoSync");
+
+    /**
+     * Minimum log size before it gets compacted.
+     */
+    public static long COMPACTION_THRESHOLD = Long.getLong(GitTagTrigger.class.getName() + ".tagStoreCompactionThreshold", 1024 * 1024);
+}
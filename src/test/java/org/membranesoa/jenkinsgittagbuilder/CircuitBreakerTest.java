@@ -0,0 +1,130 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.plugins.git.GitException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private CircuitBreaker breaker;
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        breaker = new CircuitBreaker("git.example.org");
+        now = 1000000;
+    }
+
+    @Test
+    public void closedUntilThreshold() {
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.tryAcquire(now));
+            breaker.record(false, now);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRetryIn(now));
+
+        // a success resets the count
+        breaker.record(true, now);
+        breaker.record(false, now);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void opensAtThreshold() {
+        open();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(now));
+        assertEquals(CircuitBreaker.OPEN_PERIOD, breaker.getRetryIn(now));
+        assertFalse(breaker.tryAcquire(now + CircuitBreaker.OPEN_PERIOD - 1));
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() {
+        open();
+        now += CircuitBreaker.OPEN_PERIOD;
+        assertTrue(breaker.tryAcquire(now));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(now));
+
+        breaker.record(true, now);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(now));
+    }
+
+    @Test
+    public void releasedProbeIsLetThroughAgain() {
+        open();
+        now += CircuitBreaker.OPEN_PERIOD;
+        assertTrue(breaker.tryAcquire(now));
+        breaker.release();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire(now));
+    }
+
+    @Test
+    public void failedProbesDoubleOpenPeriod() {
+        open();
+        long period = CircuitBreaker.OPEN_PERIOD;
+        while (period < CircuitBreaker.MAX_OPEN_PERIOD) {
+            now += period;
+            assertTrue(breaker.tryAcquire(now));
+            breaker.record(false, now);
+            period = Math.min(period * 2, CircuitBreaker.MAX_OPEN_PERIOD);
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            assertEquals(period, breaker.getRetryIn(now));
+        }
+
+        // capped
+        now += period;
+        assertTrue(breaker.tryAcquire(now));
+        breaker.record(false, now);
+        assertEquals(CircuitBreaker.MAX_OPEN_PERIOD, breaker.getRetryIn(now));
+
+        // and back to the initial period once a probe succeeds
+        now += period;
+        assertTrue(breaker.tryAcquire(now));
+        breaker.record(true, now);
+        open();
+        assertEquals(CircuitBreaker.OPEN_PERIOD, breaker.getRetryIn(now));
+    }
+
+    @Test
+    public void hostFailures() {
+        assertTrue(CircuitBreaker.isHostFailure(new GitException(new ConnectException("Connection refused"))));
+        assertTrue(CircuitBreaker.isHostFailure(new GitException("Failed", new UnknownHostException("git.example.org"))));
+        assertTrue(CircuitBreaker.isHostFailure(new InterruptedException()));
+        assertTrue(CircuitBreaker.isHostFailure(new InterruptedIOException()));
+        assertTrue(CircuitBreaker.isHostFailure(new GitException("Command \"git ls-remote -t https://git.example.org/repo.git\" returned status code 128:\n"
+                + "stdout: \nstderr: fatal: unable to access 'https://git.example.org/repo.git/': Could not resolve host: git.example.org")));
+        assertTrue(CircuitBreaker.isHostFailure(new GitException("Trying to list the tags of ssh://git.example.org/repo.git timed out after 1 min",
+                new GitException("stderr: fatal: the remote end hung up unexpectedly"))));
+    }
+
+    @Test
+    public void repositoryFailures() {
+        assertFalse(CircuitBreaker.isHostFailure(new GitException("Command \"git ls-remote -t https://git.example.org/repo.git\" returned status code 128:\n"
+                + "stdout: \nstderr: remote: Invalid username or password.\nfatal: Authentication failed for 'https://git.example.org/repo.git/'")));
+        assertFalse(CircuitBreaker.isHostFailure(new GitException("stderr: remote: Repository not found.")));
+        assertFalse(CircuitBreaker.isHostFailure(new GitException("stderr: fatal: unable to access 'https://git.example.org/repo.git/': The requested URL returned error: 403")));
+        assertFalse(CircuitBreaker.isHostFailure(new GitException("stderr: fatal: couldn't find remote ref refs/tags/v1")));
+        assertFalse(CircuitBreaker.isHostFailure(new GitException("Invalid refspec +refs/tags/*")));
+    }
+
+    private void open() {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.tryAcquire(now));
+            breaker.record(false, now);
+        }
+    }
+}
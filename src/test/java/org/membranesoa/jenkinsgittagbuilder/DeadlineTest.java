@@ -0,0 +1,98 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final long now = System.currentTimeMillis();
+
+    @After
+    public void tearDown() {
+        Thread.interrupted();
+    }
+
+    @Test
+    public void expiry() {
+        try (Deadline deadline = Deadline.start(HOUR, now)) {
+            assertEquals(HOUR, deadline.getRemaining(now));
+            assertEquals(HOUR - 10, deadline.getRemaining(now + 10));
+            assertFalse(deadline.isExpired(now + HOUR - 1));
+            assertTrue(deadline.isExpired(now + HOUR));
+            assertEquals(0, deadline.getRemaining(now + 2 * HOUR));
+        }
+    }
+
+    @Test
+    public void unlimited() {
+        try (Deadline deadline = Deadline.start(0, now)) {
+            assertEquals(Long.MAX_VALUE, deadline.getRemaining(now));
+            assertFalse(deadline.isExpired(now + 1000 * HOUR));
+        }
+    }
+
+    @Test
+    public void nestedNeverOutlivesOuter() {
+        try (Deadline outer = Deadline.start(HOUR, now)) {
+            try (Deadline inner = Deadline.start(2 * HOUR, now)) {
+                assertEquals(HOUR, inner.getRemaining(now));
+                assertTrue(inner.isExpired(now + HOUR));
+            }
+            try (Deadline inner = Deadline.start(0, now)) {
+                assertEquals(HOUR, inner.getRemaining(now));
+            }
+            try (Deadline inner = Deadline.start(HOUR / 2, now)) {
+                assertEquals(HOUR / 2, inner.getRemaining(now));
+                assertTrue(inner.isExpired(now + HOUR / 2));
+                assertFalse(outer.isExpired(now + HOUR / 2));
+            }
+        }
+    }
+
+    @Test
+    public void closeRestoresOuter() {
+        assertFalse(Deadline.isCurrentExpired());
+        try (Deadline outer = Deadline.start(HOUR, now)) {
+            try (Deadline inner = Deadline.start(1, now - 10)) {
+                assertTrue(Deadline.isCurrentExpired());
+            }
+            assertFalse(Deadline.isCurrentExpired());
+        }
+        assertFalse(Deadline.isCurrentExpired());
+        // the interrupt of the expired deadline, if the timer got to it, was cleared
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void expiryInterruptsUntilClosed() {
+        Deadline deadline = Deadline.start(HOUR, now);
+        deadline.expire();
+        assertTrue(Thread.currentThread().isInterrupted());
+        deadline.close();
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void closedDeadlineDoesNotInterrupt() {
+        Deadline deadline = Deadline.start(HOUR, now);
+        deadline.close();
+        deadline.expire();
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void keepsInterruptsOfOthers() {
+        try (Deadline deadline = Deadline.start(HOUR, now)) {
+            Thread.currentThread().interrupt();
+        }
+        assertTrue(Thread.interrupted());
+    }
+}
@@ -0,0 +1,246 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import hudson.Util;
+import hudson.model.AdministrativeMonitor;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParameterDefinition;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.SubmoduleConfig;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.GitSCMExtension;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * End-to-end load test: many tag-triggered jobs polling local bare repositories while bursts of tags are pushed.
+ *
+ * Not part of the regular test run. Start it with
+ * <pre>
+ * mvn test -Pload-test -Dloadtest.jobs=1000 -Dloadtest.repositories=50 -Dloadtest.tags=10 -Dloadtest.bursts=3
+ * </pre>
+ * Every burst pushes {@code loadtest.tags} tags to every repository and fires one notifyCommit per repository, which
+ * goes through {@code MyListener}, the polling queue of {@link GitTagTrigger.DescriptorImpl}, the {@code Runner}s and
+ * {@link Storage}. Executors are disabled while measuring, so every detected tag stays in the build queue. Setting
+ * {@code loadtest.pollingThreads} low and {@code loadtest.starvationThreshold} to a few seconds reproduces the
+ * clogging reported by {@link GitTagTrigger.AdministrativeMonitorImpl}.
+ */
+public class GitTagTriggerLoadHarness {
+
+    private static final int JOBS = Integer.getInteger("loadtest.jobs", 100);
+    private static final int REPOSITORIES = Integer.getInteger("loadtest.repositories", 10);
+    private static final int TAGS_PER_BURST = Integer.getInteger("loadtest.tags", 5);
+    private static final int BURSTS = Integer.getInteger("loadtest.bursts", 3);
+    private static final int POLLING_THREADS = Integer.getInteger("loadtest.pollingThreads", 10);
+    private static final long STARVATION_THRESHOLD = Long.getLong("loadtest.starvationThreshold", 5000L);
+    private static final long BURST_TIMEOUT = Long.getLong("loadtest.burstTimeout", 600000L);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final List<Repository> repositories = new ArrayList<>();
+
+    private final List<FreeStyleProject> jobs = new ArrayList<>();
+
+    private ObjectId head;
+
+    @Test
+    public void tagStorm() throws Exception {
+        GitTagTrigger.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(GitTagTrigger.DescriptorImpl.class);
+        descriptor.setPollingThreadCount(POLLING_THREADS);
+        GitTagTrigger.STARVATION_THRESHOLD = STARVATION_THRESHOLD;
+        j.jenkins.setQuietPeriod(0);
+
+        File root = Files.createTempDirectory("git-tag-load").toFile();
+        try {
+            for (int i = 0; i < REPOSITORIES; i++)
+                repositories.add(createRepository(new File(root, "repo" + i + ".git")));
+            for (int i = 0; i < JOBS; i++)
+                jobs.add(createJob("job" + i, repositories.get(i % REPOSITORIES)));
+
+            prime();
+            j.jenkins.setNumExecutors(0);
+
+            System.out.println(String.format("%d jobs, %d repositories, %d tags per burst, %d polling threads",
+                    JOBS, REPOSITORIES, TAGS_PER_BURST, POLLING_THREADS));
+            System.out.println("burst  time-to-first-queue  time-to-queue  polls/s  clogged  heap-delta  read  written");
+            for (int burst = 0; burst < BURSTS; burst++)
+                runBurst(burst, descriptor);
+        } finally {
+            for (Repository repository : repositories)
+                repository.close();
+            Util.deleteRecursive(root);
+        }
+    }
+
+    /**
+     * Builds every job once, so it has a workspace, and lets one poll record the tags already present.
+     */
+    private void prime() throws Exception {
+        j.jenkins.setNumExecutors(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        for (FreeStyleProject job : jobs)
+            j.assertBuildStatusSuccess(job.scheduleBuild2(0, null, new ParametersAction(new StringParameterValue("tagName", "initial"))));
+        for (FreeStyleProject job : jobs)
+            job.getTrigger(GitTagTrigger.class).run();
+        waitForPolling();
+        j.jenkins.getQueue().clear();
+    }
+
+    private void runBurst(int burst, GitTagTrigger.DescriptorImpl descriptor) throws Exception {
+        for (Repository repository : repositories)
+            for (int t = 0; t < TAGS_PER_BURST; t++)
+                tag(repository, "burst" + burst + "-" + t);
+
+        int expected = JOBS * TAGS_PER_BURST;
+        long heapBefore = usedHeap();
+        long[] ioBefore = processIo();
+        boolean clogged = false;
+
+        long start = System.currentTimeMillis();
+        for (Repository repository : repositories)
+            j.createWebClient().goTo("git/notifyCommit?url=" + URLEncoder.encode(url(repository), "UTF-8"), "text/plain");
+
+        long firstQueued = -1;
+        int queued = 0;
+        while (queued < expected && System.currentTimeMillis() - start < BURST_TIMEOUT) {
+            Thread.sleep(20);
+            queued = j.jenkins.getQueue().getItems().length;
+            if (queued > 0 && firstQueued < 0)
+                firstQueued = System.currentTimeMillis() - start;
+            clogged |= descriptor.isClogged();
+        }
+        long timeToQueue = System.currentTimeMillis() - start;
+        descriptor.clogCheck();
+        clogged |= AdministrativeMonitor.all().get(GitTagTrigger.AdministrativeMonitorImpl.class).isActivated();
+
+        waitForPolling();
+        long[] ioAfter = processIo();
+        long heapAfter = usedHeap();
+
+        System.out.println(String.format("%5d  %17dms  %11dms  %7.1f  %7s  %8dkB  %4s  %7s",
+                burst, firstQueued, timeToQueue, JOBS * 1000.0 / Math.max(1, timeToQueue), clogged,
+                (heapAfter - heapBefore) / 1024, kilobytes(ioBefore[0], ioAfter[0]), kilobytes(ioBefore[1], ioAfter[1])));
+
+        assertEquals("tag builds queued in burst " + burst, expected, j.jenkins.getQueue().getItems().length);
+        j.jenkins.getQueue().clear();
+    }
+
+    private FreeStyleProject createJob(String name, Repository repository) throws IOException {
+        FreeStyleProject job = j.createFreeStyleProject(name);
+        job.addProperty(new ParametersDefinitionProperty(Collections.<ParameterDefinition>singletonList(new StringParameterDefinition("tagName", ""))));
+        job.setScm(new GitSCM(Collections.singletonList(new UserRemoteConfig(url(repository), "origin", null, null)),
+                Collections.singletonList(new BranchSpec("refs/tags/${tagName}")), false,
+                Collections.<SubmoduleConfig>emptyList(), null, null, Collections.<GitSCMExtension>emptyList()));
+        try {
+            job.addTrigger(new GitTagTrigger("", "", false));
+        } catch (antlr.ANTLRException e) {
+            throw new IOException(e);
+        }
+        return job;
+    }
+
+    private Repository createRepository(File dir) throws IOException {
+        Repository repository = FileRepositoryBuilder.create(dir);
+        repository.create(true);
+        // a fixed timestamp gives every repository the same history, and so the same head
+        PersonIdent ident = new PersonIdent("load", "load@example.com", new Date(0), TimeZone.getTimeZone("UTC"));
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            tree.append("README", FileMode.REGULAR_FILE, inserter.insert(Constants.OBJ_BLOB, "load test\n".getBytes(StandardCharsets.UTF_8)));
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(tree));
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage("initial");
+            head = inserter.insert(commit);
+            inserter.flush();
+        }
+        updateRef(repository, Constants.R_HEADS + "master");
+        tag(repository, "initial");
+        return repository;
+    }
+
+    private void tag(Repository repository, String name) throws IOException {
+        updateRef(repository, Constants.R_TAGS + name);
+    }
+
+    private void updateRef(Repository repository, String ref) throws IOException {
+        RefUpdate update = repository.updateRef(ref);
+        update.setNewObjectId(head);
+        update.setForceUpdate(true);
+        update.update();
+    }
+
+    private static String url(Repository repository) {
+        return repository.getDirectory().getAbsolutePath();
+    }
+
+    /**
+     * Waits until no polling has been in progress for a second.
+     */
+    private void waitForPolling() throws InterruptedException {
+        GitTagTrigger.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(GitTagTrigger.DescriptorImpl.class);
+        int idle = 0;
+        while (idle < 10) {
+            Thread.sleep(100);
+            idle = descriptor.getRunners().isEmpty() ? idle + 1 : 0;
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Bytes read and written by this process so far, or -1 where /proc is not available.
+     */
+    private static long[] processIo() {
+        long[] result = {-1, -1};
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/io").toPath(), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("rchar:"))
+                    result[0] = Long.parseLong(line.substring(6).trim());
+                else if (line.startsWith("wchar:"))
+                    result[1] = Long.parseLong(line.substring(6).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return result;
+    }
+
+    private static String kilobytes(long before, long after) {
+        return before < 0 || after < 0 ? "n/a" : (after - before) / 1024 + "kB";
+    }
+}
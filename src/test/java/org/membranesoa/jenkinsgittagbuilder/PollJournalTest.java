@@ -0,0 +1,122 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PollJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private long maxSize;
+
+    private File file;
+
+    private PollJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        maxSize = PollJournal.MAX_SIZE;
+        file = new File(tmp.newFolder("job"), "git-tag-polls.log");
+        journal = new PollJournal(file);
+    }
+
+    @After
+    public void tearDown() {
+        PollJournal.MAX_SIZE = maxSize;
+    }
+
+    @Test
+    public void empty() throws IOException {
+        assertNull(journal.findLast());
+        assertNull(journal.find(1));
+    }
+
+    @Test
+    public void appendAndFind() throws IOException {
+        journal.append(record(1000, "first"));
+        journal.append(new PollRecord("job", 2000, 2100, "remote", 2, 0, 10, PollRecord.Outcome.OK,
+                Arrays.asList("v1", "v2"), "two\nlines"));
+        journal.append(record(3000, "third"));
+
+        assertEquals(3000, journal.findLast().getPollId());
+        PollRecord second = journal.find(2000);
+        assertEquals(Arrays.asList("v1", "v2"), second.getNewTags());
+        assertEquals("two\nlines", second.getMessages());
+        assertNull(journal.find(2500));
+
+        // another instance for the same file, as after a restart
+        assertEquals(3000, new PollJournal(file).findLast().getPollId());
+    }
+
+    @Test
+    public void skipsIncompleteLastLine() throws IOException {
+        // written before a crash, so that the journal is first opened after it
+        StringWriter complete = new StringWriter();
+        record(1000, "complete").writeTo(complete);
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write((complete + "\n1\tjob\t2000\t20").getBytes(PollLog.CHARSET));
+        }
+        assertEquals(1000, journal.findLast().getPollId());
+
+        journal.append(record(3000, "after the crash"));
+        assertEquals(3000, journal.findLast().getPollId());
+        assertEquals("after the crash", journal.find(3000).getMessages());
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        PollJournal.MAX_SIZE = 100;
+        journal.append(record(1000, longMessage()));
+        journal.append(record(2000, longMessage()));
+        File rotated = new File(file.getPath() + ".1");
+        assertTrue(rotated.exists());
+
+        // the rotated file is still searched
+        assertEquals(1000, journal.find(1000).getPollId());
+        assertEquals(2000, journal.findLast().getPollId());
+
+        journal.append(record(3000, longMessage()));
+        assertNull(journal.find(1000));
+        assertEquals(2000, journal.find(2000).getPollId());
+        assertEquals(3000, journal.findLast().getPollId());
+        assertFalse(file.length() > 2 * 200);
+    }
+
+    @Test
+    public void lastRecordSurvivesRotation() throws IOException {
+        PollJournal.MAX_SIZE = 100;
+        journal.append(record(1000, longMessage()));
+        journal.append(record(2000, longMessage()));
+        // nothing but the rotated file left, e.g. after a crash right after rotating
+        assertTrue(file.delete());
+        assertEquals(1000, journal.findLast().getPollId());
+    }
+
+    private static PollRecord record(long pollId, String messages) {
+        return new PollRecord("job", pollId, pollId + 50, "remote", 1, 0, 5, PollRecord.Outcome.OK,
+                Collections.<String>emptyList(), messages);
+    }
+
+    private static String longMessage() {
+        char[] chars = new char[150];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+}
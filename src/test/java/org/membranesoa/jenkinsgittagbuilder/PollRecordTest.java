@@ -0,0 +1,77 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PollRecordTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        PollRecord record = new PollRecord("folder/job\twith tab", 1000, 2500, "https://example.org/repo.git", 42, 3, 750,
+                PollRecord.Outcome.TIMED_OUT, Arrays.asList("v1.0", "v1.1", "release/2.0"),
+                "line one\nline\ttwo\r\nback\\slash\n");
+
+        String line = write(record);
+        assertFalse(line.contains("\n"));
+        assertFalse(line.contains("\r"));
+
+        PollRecord read = PollRecord.parse(line);
+        assertEquals("folder/job\twith tab", read.getJob());
+        assertEquals(1000, read.getPollId());
+        assertEquals(2500, read.getFinishedAt());
+        assertEquals("https://example.org/repo.git", read.getRemote());
+        assertEquals(42, read.getRefs());
+        assertEquals(3, read.getDeleted());
+        assertEquals(750, read.getListMillis());
+        assertEquals(PollRecord.Outcome.TIMED_OUT, read.getOutcome());
+        assertEquals(Arrays.asList("v1.0", "v1.1", "release/2.0"), read.getNewTags());
+        assertEquals("line one\nline\ttwo\r\nback\\slash\n", read.getMessages());
+        assertEquals(record.render(), read.render());
+    }
+
+    @Test
+    public void roundTripWithoutRemoteAndTags() throws IOException {
+        PollRecord record = new PollRecord("job", 1000, 1000, null, 0, 0, 0, PollRecord.Outcome.FAILED,
+                Collections.<String>emptyList(), "");
+
+        PollRecord read = PollRecord.parse(write(record));
+        assertNull(read.getRemote());
+        assertTrue(read.getNewTags().isEmpty());
+        assertEquals("", read.getMessages());
+        assertEquals(PollRecord.Outcome.FAILED, read.getOutcome());
+    }
+
+    @Test
+    public void pollIdOf() throws IOException {
+        String line = write(new PollRecord("a\tb", 1234, 2000, null, 0, 0, 0, PollRecord.Outcome.OK,
+                Collections.singletonList("v1"), ""));
+        assertEquals(1234, PollRecord.pollIdOf(line));
+        assertEquals(-1, PollRecord.pollIdOf("garbage"));
+        assertEquals(-1, PollRecord.pollIdOf("1\tjob"));
+        assertEquals(-1, PollRecord.pollIdOf("2" + line.substring(1)));
+    }
+
+    @Test
+    public void rejectsOtherVersionsAndTruncatedLines() throws IOException {
+        String line = write(new PollRecord("job", 1, 2, null, 0, 0, 0, PollRecord.Outcome.OK,
+                Collections.<String>emptyList(), ""));
+        assertNull(PollRecord.parse("2" + line.substring(1)));
+        assertNull(PollRecord.parse(line.substring(0, line.lastIndexOf('\t'))));
+        assertNull(PollRecord.parse(line.replace("OK", "MAYBE")));
+    }
+
+    private static String write(PollRecord record) throws IOException {
+        StringWriter out = new StringWriter();
+        record.writeTo(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import antlr.ANTLRException;
+import hudson.model.Action;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PollSchedulerTest {
+
+    private static final long MIN = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long BUSY_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+    private PollScheduler scheduler;
+
+    private long start;
+
+    private CountingTrigger trigger;
+
+    @Before
+    public void setUp() throws ANTLRException {
+        scheduler = new PollScheduler();
+        // read after the scheduler, so that its last tick is not later than this
+        start = System.currentTimeMillis();
+        trigger = new CountingTrigger();
+    }
+
+    @Test
+    public void pollsWhenDue() {
+        scheduler.register(trigger, "* * * * *", null, start + 2 * MIN);
+        assertNotNull(trigger.scheduled);
+
+        assertEquals(0, scheduler.tick(start + MIN, BUSY_TIMEOUT));
+        assertEquals(0, trigger.runs);
+        assertEquals(1, scheduler.tick(start + 2 * MIN, BUSY_TIMEOUT));
+        assertEquals(1, trigger.runs);
+        // a tick for a minute already walked does nothing
+        assertEquals(0, scheduler.tick(start + 2 * MIN, BUSY_TIMEOUT));
+
+        scheduler.completed(trigger);
+        assertEquals(1, scheduler.tick(start + 3 * MIN, BUSY_TIMEOUT));
+        assertEquals(2, trigger.runs);
+    }
+
+    @Test
+    public void skipsWhileBusy() {
+        scheduler.register(trigger, "* * * * *", null, start + MIN);
+        assertEquals(1, scheduler.tick(start + MIN, BUSY_TIMEOUT));
+
+        // the polling has not completed yet
+        assertEquals(0, scheduler.tick(start + 2 * MIN, BUSY_TIMEOUT));
+        assertEquals(1, trigger.runs);
+
+        scheduler.completed(trigger);
+        assertEquals(1, scheduler.tick(start + 3 * MIN, BUSY_TIMEOUT));
+        assertEquals(2, trigger.runs);
+
+        // a polling that takes too long no longer holds the trigger back
+        assertEquals(1, scheduler.tick(start + 5 * MIN, MIN));
+        assertEquals(3, trigger.runs);
+    }
+
+    @Test
+    public void unregister() {
+        scheduler.register(trigger, "* * * * *", null, start + MIN);
+        scheduler.unregister(trigger);
+        assertNull(trigger.scheduled);
+
+        assertEquals(0, scheduler.tick(start + MIN, BUSY_TIMEOUT));
+        assertEquals(0, scheduler.tick(start + 2 * MIN, BUSY_TIMEOUT));
+        assertEquals(0, trigger.runs);
+    }
+
+    @Test
+    public void registerReplacesSchedule() {
+        scheduler.register(trigger, "* * * * *", null, start + MIN);
+        scheduler.register(trigger, "* * * * *", null, start + 3 * MIN);
+
+        assertEquals(0, scheduler.tick(start + MIN, BUSY_TIMEOUT));
+        assertEquals(1, scheduler.tick(start + 3 * MIN, BUSY_TIMEOUT));
+        assertEquals(1, trigger.runs);
+    }
+
+    @Test
+    public void dropsTriggersNoLongerCurrent() {
+        scheduler.register(trigger, "* * * * *", null, start + MIN);
+        trigger.current = false;
+
+        assertEquals(0, scheduler.tick(start + MIN, BUSY_TIMEOUT));
+        assertNull(trigger.scheduled);
+        assertEquals(0, trigger.runs);
+    }
+
+    @Test
+    public void neverDue() {
+        scheduler.register(trigger, "# no schedule", null, 0);
+        assertNull(trigger.scheduled);
+    }
+
+    private static class CountingTrigger extends GitTagTrigger {
+        private int runs;
+
+        private boolean current = true;
+
+        CountingTrigger() throws ANTLRException {
+            super("", "", false);
+        }
+
+        @Override
+        public void run(Action[] additionalActions, PollPriority priority) {
+            assertEquals(PollPriority.CRON, priority);
+            runs++;
+        }
+
+        @Override
+        boolean isCurrent() {
+            return current;
+        }
+    }
+}
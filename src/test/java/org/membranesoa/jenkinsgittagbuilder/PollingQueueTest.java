@@ -0,0 +1,205 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollingQueueTest {
+
+    private static final long MIN = TimeUnit.MINUTES.toMillis(1);
+
+    private ManualExecutor executor;
+
+    private PollingQueue queue;
+
+    private List<String> started;
+
+    private long now;
+
+    @Before
+    public void setUp() {
+        executor = new ManualExecutor();
+        queue = new PollingQueue(executor);
+        queue.setExecutors(executor, 1);
+        started = new ArrayList<>();
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void urgentPrioritiesGoFirst() {
+        queue.execute(task("blocker"), PollPriority.CRON, now);
+        queue.execute(task("cron"), PollPriority.CRON, now);
+        queue.execute(task("webhook"), PollPriority.WEBHOOK, now + 1);
+        queue.execute(task("manual"), PollPriority.MANUAL, now + 2);
+        assertEquals(3, queue.getPendingCount());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("blocker", "manual", "webhook", "cron"), started);
+    }
+
+    @Test
+    public void waitingCronPollingsAge() {
+        queue.execute(task("blocker"), PollPriority.CRON, now);
+        queue.execute(task("cron"), PollPriority.CRON, now);
+        // ranked behind the cron polling, which has waited longer than its handicap
+        queue.execute(task("manual"), PollPriority.MANUAL, now + PollPriority.CRON_HANDICAP + 1);
+        queue.execute(task("webhook"), PollPriority.WEBHOOK, now + PollPriority.CRON_HANDICAP - PollPriority.WEBHOOK_HANDICAP - 1);
+
+        executor.runAll();
+        assertEquals(Arrays.asList("blocker", "webhook", "cron", "manual"), started);
+    }
+
+    @Test
+    public void repeatedRequestMovesUp() {
+        Runnable cron = task("cron");
+        queue.execute(task("blocker"), PollPriority.CRON, now);
+        queue.execute(cron, PollPriority.CRON, now);
+        queue.execute(task("webhook"), PollPriority.WEBHOOK, now + 1);
+        queue.execute(cron, PollPriority.MANUAL, now + 2);
+        assertEquals(2, queue.getPendingCount());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("blocker", "cron", "webhook"), started);
+    }
+
+    @Test
+    public void oldestPendingAge() {
+        assertEquals(0, queue.getOldestPendingAge(now));
+        queue.execute(task("blocker"), PollPriority.CRON, now);
+        assertEquals(0, queue.getOldestPendingAge(now + MIN));
+        queue.execute(task("cron"), PollPriority.CRON, now + MIN);
+        queue.execute(task("manual"), PollPriority.MANUAL, now + 2 * MIN);
+        assertEquals(2 * MIN, queue.getOldestPendingAge(now + 3 * MIN));
+    }
+
+    @Test
+    public void recentlyTaggedUseReserve() {
+        PollingQueue.Budgets budgets = new PollingQueue.Budgets();
+        // a token per minute, so a bucket holds BURST_MINUTES tokens, the last quarter of them reserved
+        budgets.setRateLimit(60);
+        int capacity = PollingQueue.BURST_MINUTES;
+        int reserve = capacity / 4;
+        Repository quiet = new Repository("credentials", 0);
+        Repository tagged = new Repository("credentials", now - MIN);
+
+        for (int i = 0; i < capacity - reserve; i++)
+            assertEquals(0, budgets.take(quiet, now));
+        long wait = budgets.take(quiet, now);
+        assertTrue(wait > 0);
+
+        for (int i = 0; i < reserve; i++)
+            assertEquals(0, budgets.take(tagged, now));
+        assertEquals(MIN, budgets.take(tagged, now));
+
+        // the reserve fills up first
+        now += 2 * MIN;
+        assertEquals(0, budgets.take(tagged, now));
+        wait = budgets.take(quiet, now);
+        assertTrue(wait > 0);
+        assertEquals(0, budgets.take(quiet, now + wait + 1));
+    }
+
+    @Test
+    public void budgetsArePerHostAndBudget() {
+        PollingQueue.Budgets budgets = new PollingQueue.Budgets();
+        budgets.setRateLimit(60);
+        Repository tagged = new Repository("tagged", now);
+        for (int i = 0; i < PollingQueue.BURST_MINUTES; i++)
+            assertEquals(0, budgets.take(tagged, now));
+        assertTrue(budgets.take(tagged, now) > 0);
+        assertEquals(0, budgets.take(new Repository("other", now), now));
+
+        budgets.setRateLimit(0);
+        assertEquals(0, budgets.take(tagged, now));
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.add(name);
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    private static class Repository implements PollingQueue.Budgeted {
+        private final String budget;
+
+        private final long lastTagged;
+
+        Repository(String budget, long lastTagged) {
+            this.budget = budget;
+            this.lastTagged = lastTagged;
+        }
+
+        @Override
+        public String getHost() {
+            return "git.example.org";
+        }
+
+        @Override
+        public String getBudget() {
+            return budget;
+        }
+
+        @Override
+        public long getLastTagged() {
+            return lastTagged;
+        }
+    }
+
+    /**
+     * Runs the submitted tasks on the test thread, when told to.
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+        private final LinkedList<Runnable> submitted = new LinkedList<>();
+
+        void runAll() {
+            while (!submitted.isEmpty())
+                submitted.removeFirst().run();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            submitted.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
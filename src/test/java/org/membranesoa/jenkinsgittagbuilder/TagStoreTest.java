@@ -0,0 +1,195 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+
+    private TagStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(tmp.newFolder("store"), "tags.log");
+        store = new TagStore(file);
+    }
+
+    @Test
+    public void appendAndReload() throws IOException {
+        assertTrue(store.storeNewTags("job", "remote", tags("v1", 1, "v2", 2), 1000).isEmpty());
+        assertEquals(tags("v3", 3), store.storeNewTags("job", "remote", tags("v1", 1, "v2", 2, "v3", 3), 2000));
+        store.recordBuild("job", "remote", "v3", 7);
+        store.storeTagInfo("job", "remote", Collections.singletonMap("v3", new TagInfo("me <me@example.org>", 1234, "release")));
+        assertEquals(tags("v1", 1), store.reconcile("job", "remote", tags("v2", 2, "v3", 3), false, 0, 0));
+
+        store.close();
+        TagStore reloaded = new TagStore(file);
+        Map<String, TagStore.TagState> state = reloaded.getTags("job", "remote");
+        assertEquals(3, state.size());
+        assertTrue(state.get("v1").getDeletedAt() > 0);
+        assertEquals(0, state.get("v2").getDeletedAt());
+        assertEquals(sha(3), state.get("v3").getSha());
+        assertEquals(2000, state.get("v3").getPollId());
+        assertEquals(7, state.get("v3").getBuildNumber());
+        assertEquals("release", state.get("v3").getInfo().getMessage());
+        assertTrue(reloaded.storeNewTags("job", "remote", tags("v2", 2, "v3", 3), 3000).isEmpty());
+    }
+
+    @Test
+    public void movedTag() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1", 1), 1000);
+        assertTrue(store.storeNewTags("job", "remote", tags("v1", 2), 2000).isEmpty());
+
+        store.close();
+        assertEquals(sha(2), new TagStore(file).getTags("job", "remote").get("v1").getSha());
+    }
+
+    @Test
+    public void truncatedTail() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1", 1), 1000);
+        store.storeNewTags("job", "remote", tags("v1", 1, "v2", 2), 2000);
+        store.close();
+        try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+            log.setLength(log.length() - 3);
+        }
+
+        TagStore reloaded = new TagStore(file);
+        assertEquals(Collections.singleton("v1"), reloaded.getTags("job", "remote").keySet());
+        // the cut record is discarded, so the next one is not appended to it
+        assertEquals(tags("v3", 3), reloaded.storeNewTags("job", "remote", tags("v1", 1, "v3", 3), 3000));
+        reloaded.close();
+        assertEquals(tags("v1", 1, "v3", 3).keySet(), new TagStore(file).getTags("job", "remote").keySet());
+    }
+
+    @Test
+    public void corruptTail() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1", 1), 1000);
+        store.storeNewTags("job", "remote", tags("v1", 1, "v2", 2), 2000);
+        store.close();
+        try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+            log.seek(log.length() - 1);
+            int last = log.read();
+            log.seek(log.length() - 1);
+            log.write(last ^ 0xff);
+        }
+
+        TagStore reloaded = new TagStore(file);
+        assertEquals(Collections.singleton("v1"), reloaded.getTags("job", "remote").keySet());
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1", 1), 1000);
+        for (int i = 2; i < 50; i++)
+            store.storeNewTags("job", "remote", tags("v1", i), 1000 + i);
+        store.storeNewTags("job", "remote", tags("v1", 50, "v2", 2), 2000);
+        store.recordBuild("job", "remote", "v2", 3);
+        store.reconcile("job", "remote", tags("v2", 2), false, 0, 0);
+        store.storeNewTags("other", "remote", tags("x", 1), 1000);
+        long before = file.length();
+
+        store.compact();
+        assertTrue(file.length() < before);
+        // still appends to the compacted log
+        store.storeNewTags("other", "remote", tags("x", 1, "y", 2), 3000);
+
+        store.close();
+        TagStore reloaded = new TagStore(file);
+        Map<String, TagStore.TagState> state = reloaded.getTags("job", "remote");
+        assertEquals(sha(50), state.get("v1").getSha());
+        assertTrue(state.get("v1").getDeletedAt() > 0);
+        assertEquals(3, state.get("v2").getBuildNumber());
+        assertEquals(2000, state.get("v2").getPollId());
+        assertEquals(tags("x", 1, "y", 2).keySet(), reloaded.getTags("other", "remote").keySet());
+    }
+
+    @Test
+    public void remoteStaysInitializedWhenAllTagsArePruned() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1", 1), 1000);
+        store.reconcile("job", "remote", Collections.<String, ObjectId>emptyMap(), true, 0, 0);
+        store.compact();
+        store.close();
+
+        TagStore reloaded = new TagStore(file);
+        assertTrue(reloaded.getTags("job", "remote").isEmpty());
+        assertEquals(tags("v2", 2), reloaded.storeNewTags("job", "remote", tags("v2", 2), 2000));
+    }
+
+    @Test
+    public void emptyListingInitializesRemote() throws IOException {
+        assertTrue(store.storeNewTags("job", "remote", Collections.<String, ObjectId>emptyMap(), 1000).isEmpty());
+        store.close();
+
+        TagStore reloaded = new TagStore(file);
+        assertEquals(tags("v1", 1), reloaded.storeNewTags("job", "remote", tags("v1", 1), 2000));
+        // unlike a remote never polled
+        assertTrue(reloaded.storeNewTags("other", "remote", tags("v1", 1), 2000).isEmpty());
+    }
+
+    @Test
+    public void historyPages() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1.0", 1), 1000);
+        store.storeNewTags("job", "remote", tags("v1.0", 1, "v1.1", 2), 2000);
+        store.storeNewTags("job", "remote", tags("v1.0", 1, "v1.1", 2, "v2.0", 3), 3000);
+        store.storeNewTags("job", "other", tags("v1.2", 4), 4000);
+
+        TagStore.HistoryPage page = store.getHistory("job", "", 0, 2);
+        assertEquals(4, page.getTotal());
+        assertEquals(0, page.getStart());
+        assertEquals(2, page.getEntries().size());
+        assertEquals(4, page.getEntries().size() + store.getHistory("job", "", 2, 10).getEntries().size());
+
+        page = store.getHistory("job", "v1.", 1, 10);
+        assertEquals(3, page.getTotal());
+        assertEquals(1, page.getStart());
+        assertEquals(2, page.getEntries().size());
+        for (TagStore.HistoryEntry entry : page.getEntries())
+            assertTrue(entry.getTag().startsWith("v1."));
+
+        assertEquals(4, store.getHistory("job", "", 5, 10).getTotal());
+        assertTrue(store.getHistory("job", "", 5, 10).getEntries().isEmpty());
+        assertTrue(store.getHistory("nobody", "", 0, 10).getEntries().isEmpty());
+    }
+
+    @Test
+    public void historyFollowsChanges() throws IOException {
+        store.storeNewTags("job", "remote", tags("v1", 1), 1000);
+        store.storeNewTags("job", "remote", tags("v1", 1, "v2", 2), 2000);
+        assertEquals(0, store.getHistory("job", "", 0, 10).getEntries().get(0).getBuildNumber());
+
+        store.recordBuild("job", "remote", "v2", 5);
+        TagStore.HistoryPage page = store.getHistory("job", "v2", 0, 10);
+        assertEquals(5, page.getEntries().get(0).getBuildNumber());
+
+        store.removeAll("job", "remote", Collections.singleton("v1"));
+        assertEquals(1, store.getHistory("job", "", 0, 10).getTotal());
+    }
+
+    private static ObjectId sha(int n) {
+        return ObjectId.fromString(String.format("%040x", n));
+    }
+
+    private static Map<String, ObjectId> tags(Object... namesAndShas) {
+        Map<String, ObjectId> tags = new HashMap<>();
+        for (int i = 0; i < namesAndShas.length; i += 2)
+            tags.put((String) namesAndShas[i], sha((Integer) namesAndShas[i + 1]));
+        return tags;
+    }
+}
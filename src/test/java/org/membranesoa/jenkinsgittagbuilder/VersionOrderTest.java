@@ -0,0 +1,42 @@
+package org.membranesoa.jenkinsgittagbuilder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VersionOrderTest {
+
+    @Test
+    public void numericComponents() {
+        assertOrdered("v1.9", "v1.10");
+        assertOrdered("v1.10", "v2.0");
+        assertOrdered("v2.0", "v2.0.1");
+        assertEquals(0, GitTagTrigger.VERSION_ORDER.compare("v1.10", "v1.10"));
+    }
+
+    @Test
+    public void preReleasesBeforeFinal() {
+        assertOrdered("v2.0.0-rc1", "v2.0.0");
+        assertOrdered("v2.0.0.rc1", "v2.0.0");
+        assertOrdered("v2.0.0-beta", "v2.0.0");
+        assertOrdered("v2.0.0-rc1", "v2.0.0-rc2");
+        assertOrdered("v2.0.0-rc9", "v2.0.0-rc10");
+        assertOrdered("v2.0.0", "v2.0.1-rc1");
+    }
+
+    @Test
+    public void newestIsFinal() {
+        List<String> tags = Arrays.asList("v2.0.0-rc1", "v1.10", "v2.0.0", "v1.9", "v2.0.0-rc2");
+        assertEquals("v2.0.0", Collections.max(tags, GitTagTrigger.VERSION_ORDER));
+    }
+
+    private static void assertOrdered(String lower, String higher) {
+        assertTrue(lower + " < " + higher, GitTagTrigger.VERSION_ORDER.compare(lower, higher) < 0);
+        assertTrue(higher + " > " + lower, GitTagTrigger.VERSION_ORDER.compare(higher, lower) > 0);
+    }
+}